@@ -1,6 +1,8 @@
 from socket import *
 import subprocess
 import picamera
+import picamera.array
+from PIL import Image
 import time
 import io
 import struct
@@ -15,6 +17,13 @@ ip_address = '192.168.1.143' # ip address for socket
 ip_port = 9000 # port number for socket
 server_name = 'Camera'
 
+# low resolution previews, for watching the board during the human move
+preview_resolution = (648, 486)
+preview_quality = 50
+
+# tiles of the board, one per cell, sent as each is encoded
+tile_quality = 95
+
 
 # get the command line arguments to set DEFAULT auto whate balance
 
@@ -103,6 +112,12 @@ with picamera.PiCamera() as camera:
                  camera.awb_mode = 'fluorescent'
             elif (cmd_lr[1] == "i"):
                  camera.awb_mode = 'incandescent'
+        elif (cmd_lr[0] == "set_ev"):
+            # exposure compensation, in 1/6 stop (-25 to 25); reply so commands do not run together
+            camera.exposure_compensation = int(cmd_lr[1])
+            if (DEBUG): print ("exposure compensation = ", camera.exposure_compensation)
+            server.sendStatus(camera.exposure_compensation & 0xffffffff)
+            
         elif (cmd_lr[0] == "send_pic"):
             if (DEBUG): print("Capturing...")
             # acquire the image from the camera
@@ -129,6 +144,44 @@ with picamera.PiCamera() as camera:
             stream.seek(0)
             stream.truncate() 
             
+        elif (cmd_lr[0] == "send_preview"):
+            if (DEBUG): print("Capturing preview...")
+            # quick low resolution capture from the video port
+            camera.capture(stream, format='jpeg', use_video_port=True,
+                resize=preview_resolution, quality=preview_quality)
+            
+            # send the stream
+            server.sendStream(stream)
+            
+            # clean up for next image
+            stream.seek(0)
+            stream.truncate() 
+            
+        elif (cmd_lr[0] == "send_tiles"):
+            if (DEBUG): print("Capturing tiles...")
+            # the grid: x of 4 column lines, y of 4 row lines, margin around each tile
+            grid = [int(v) for v in cmd_lr[1].split(",")]
+            xs = grid[0:4]
+            ys = grid[4:8]
+            margin = grid[8]
+            
+            # acquire the image from the camera, not encoded
+            with picamera.array.PiRGBArray(camera) as rgb:
+                camera.capture(rgb, format='rgb')
+                
+                # send the number of tiles, then each tile as soon as it is encoded
+                server.sendStatus(9)
+                for row in range(3):
+                    for col in range(3):
+                        tile = rgb.array[max(0, ys[row] - margin):ys[row + 1] + margin,
+                            max(0, xs[col] - margin):xs[col + 1] + margin]
+                        Image.fromarray(tile).save(stream, format='jpeg', quality=tile_quality)
+                        server.sendStream(stream)
+                        stream.seek(0)
+                        stream.truncate() 
+            
+            if (DEBUG): print ("think sent tiles")
+            
         else:
             print("Done!")
             break
@@ -0,0 +1,65 @@
+/**
+ * This class measures the heap memory allocated by the current thread, so that the garbage
+ * produced by a piece of code (e.g., receiving and decoding an image) can be found. 
+ * 
+ * The measure depends on the JVM supporting thread allocation accounting (HotSpot does).
+ * If it does not, the measure is always 0.
+ * 
+ */
+package org.gaf.ttt.common;
+
+import java.lang.management.ManagementFactory;
+
+public class AllocationMeter {
+	
+	// the JVM support, if any
+	private static final com.sun.management.ThreadMXBean threadBean;
+	static {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean && 
+				((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threadBean = null;
+		}
+	}
+	
+	private long startBytes = 0;
+	
+	/**
+	 * Returns the bytes allocated by the current thread since it started.
+	 * 
+	 * @return bytes; 0 if not supported
+	 */
+	public static long allocatedBytes() {
+		if (threadBean == null) return 0;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Indicates if the JVM supports the measure.
+	 * 
+	 * @return true if supported
+	 */
+	public static boolean isSupported() {
+		return threadBean != null;
+	}
+	
+	/**
+	 * Starts a measurement.
+	 */
+	public void start() {
+		startBytes = allocatedBytes();
+	}
+	
+	/**
+	 * Returns the bytes allocated by the current thread since start().
+	 * 
+	 * @return bytes
+	 */
+	public long stop() {
+		return allocatedBytes() - startBytes;
+	}
+
+}
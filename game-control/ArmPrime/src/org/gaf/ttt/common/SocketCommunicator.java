@@ -5,7 +5,6 @@
  */
 package org.gaf.ttt.common;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -115,17 +114,30 @@ public class SocketCommunicator {
 	 */
 	public int sendCommandGetStatus(String command) throws IOException {
 		
+		if(DEBUG) System.out.println("Sending command: " + command);
+		
+		// send command
+		outputStream.print(command);
+		
+		return getStatus(command);
+	}
+	
+	/**
+	 * Returns a "status" response, without sending a command. Used when a command gets 
+	 * more than one response, e.g., a framed stream of data.
+	 * 
+	 * @param command the response is for (for errors)
+	 * @return a status response  
+	 * @throws IOException 
+	 */
+	public int getStatus(String command) throws IOException {
+		
 		int bytesRead = -1; // bytes read from one socket read
 		int response = 0; // response to command
 		
 		// buffer into which to read data from socket
 		byte[] content = new byte[16];
 		
-		if(DEBUG) System.out.println("Sending command: " + command);
-		
-		// send command
-		outputStream.print(command);
-		
 		// get the 4 bytes that comprise the response
 		response = 0;
 		while ((bytesRead = inputStream.read(content, 0, 4)) != -1) {
@@ -167,52 +179,51 @@ public class SocketCommunicator {
 	/**
 	 * Returns a "big data" in a byte array. Simply retrieves data.
 	 * 
+	 * The array is allocated at exactly the data length, and filled directly from the 
+	 * socket, so there is no copying. To avoid even the allocation, use readData() with a
+	 * reused buffer.
+	 * 
 	 * @param dataLen length of data to retrieve
 	 * @return a "big data" response
 	 * @throws IOException 
 	 */
 	public byte[] getData(int dataLen) throws IOException {
 		
+		byte[] data = new byte[dataLen];
+		readData(data, dataLen);
+		return data;		
+	}
+	
+	/**
+	 * Reads a "big data" into a buffer supplied by the caller, which can be reused for 
+	 * each transfer. The data is read straight into the buffer, as much at a time as the
+	 * socket delivers.
+	 * 
+	 * @param buffer to hold the data; must be at least dataLen long
+	 * @param dataLen length of data to retrieve
+	 * @throws IOException if the stream ends before all the data is read
+	 */
+	public void readData(byte[] buffer, int dataLen) throws IOException {
+		
 		// debug timing
 		long mStartC = 0;
 		long mStopC = 0;
 		
-		// accumulator for "big" data if needed
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		
-		// the "big data" as a byte array
-//		byte[] dataBytes = null;
-	
-		int bytesRead = -1; // bytes read from one socket read
-		int totalRead = 0; // total bytes read to a certain point
-		
-		// buffer into which to read data from socket
-		byte[] content = new byte[4096];
-		int bytes2read = 4096; // get as much as possible from socket
-		
 		if (DEBUG_T) {
 			// start time
 			mStartC = System.currentTimeMillis();
 		}
 		
-//		// send command and get length of big data to read
-//		int dataLen = sendCommandGetStatus(command);
-
 		// read from the stream to get the image
-		totalRead = 0;
-		while ((bytesRead = inputStream.read(content, 0, bytes2read)) != -1) {
-			// System.out.println("read "+ bytesRead);
-			baos.write(content, 0, bytesRead);
-			totalRead += bytesRead;
-			if (totalRead == dataLen) { // we are done
-				break;
-			} else { // must calculate how many to read next time
-				if (dataLen - totalRead >= 4096) { // fill the array
-					bytes2read = 4096;
-				} else { // limit to just what is needed
-					bytes2read = dataLen - totalRead;
-				}
+		int bytesRead = -1; // bytes read from one socket read
+		int totalRead = 0; // total bytes read to a certain point
+		while (totalRead < dataLen) {
+			bytesRead = inputStream.read(buffer, totalRead, dataLen - totalRead);
+			if (bytesRead == -1) { // got serious error, like EOF
+				System.out.println("EOF trying to get data!");
+				throw new IOException("Got " + totalRead + " of " + dataLen + " bytes");
 			}
+			totalRead += bytesRead;
 		}
 		
 		if (DEBUG_T) {
@@ -222,8 +233,6 @@ public class SocketCommunicator {
 		}
 
 		if (DEBUG) System.out.println("Big data length " + totalRead);		
-
-		return baos.toByteArray();		
 	}
 	
 
@@ -257,7 +266,7 @@ public class SocketCommunicator {
 		
 		boolean goOn = true;
 		while (goOn) {
-			System.out.println("Enter command: i (image); q (quit); w (white balance) ");
+			System.out.println("Enter command: i (image); a (allocation); q (quit); w (white balance) ");
 			String decision = input.nextLine();
 			System.out.println("decision:" + decision);
 			if (decision.equals("q")) {
@@ -285,6 +294,26 @@ public class SocketCommunicator {
 				Path pathw = FileSystems.getDefault().getPath("",
 						"scene.jpg");
 				Files.write(pathw, imageBytes);
+			} else if (decision.equals("a")) {
+				
+				// compare allocation of new arrays to a reused buffer
+				AllocationMeter meter = new AllocationMeter();
+				int count = 5;
+				meter.start();
+				for (int i = 0; i < count; i++) {
+					commo.sendCommandGetData("send_pic");
+				}
+				System.out.println("new array, KB per image: " + meter.stop() / count / 1024);
+				
+				byte[] buffer = new byte[0];
+				meter.start();
+				for (int i = 0; i < count; i++) {
+					int dataLen = commo.sendCommandGetStatus("send_pic");
+					if (buffer.length < dataLen) buffer = new byte[dataLen + dataLen / 4];
+					commo.readData(buffer, dataLen);
+				}
+				System.out.println("reused buffer, KB per image: " + meter.stop() / count / 1024);
+				if (!AllocationMeter.isSupported()) System.out.println("(allocation not measured by this JVM)");
 			}
 
 //			TicTacToeAnalyzer tttInspect = new TicTacToeAnalyzer();
@@ -178,6 +178,50 @@ public class TicTacToeGameBoard {
 	}
 
 	
+	/**
+	 * Creates a game board from a simple text description. The description has a
+	 * character for each cell, row by row: X (or x) for a X, O (or o) for a O, and 
+	 * - (or .) for empty. Any other characters, like spaces, newlines or /, are ignored.
+	 * 
+	 * For example "XO-/---/--X".
+	 * 
+	 * @param description of the board
+	 * @return the game board
+	 * @throws IllegalArgumentException if the description does not have 9 cells
+	 */
+	public static TicTacToeGameBoard parseBoard(String description) {
+		TicTacToeGameBoard board = new TicTacToeGameBoard();
+		int cells = 0;
+		for (char c : description.toCharArray()) {
+			int token;
+			switch (c) {
+			case 'X':
+			case 'x':
+				token = CROSS;
+				break;
+			case 'O':
+			case 'o':
+				token = NAUGHT;
+				break;
+			case '-':
+			case '.':
+				token = EMPTY;
+				break;
+			default:
+				continue;
+			}
+			if (cells < 9) {
+				board.setCell(cells / 3, cells % 3, token);
+			}
+			cells++;
+		}
+		if (cells != 9) {
+			throw new IllegalArgumentException("Board description needs 9 cells, has " + cells);
+		}
+		
+		return board;
+	}
+	
 	@Override
 	public String toString() {	
 		return (tokenToString(gameBoard[0][0]) + " | " + 
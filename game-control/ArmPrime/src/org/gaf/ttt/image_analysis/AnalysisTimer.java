@@ -0,0 +1,311 @@
+/**
+ * This class records how long the stages of image analysis take. It is meant to be always
+ * on, so recording a span is just a System.nanoTime() call and a few array updates.
+ *
+ * For each stage it keeps
+ * -- the time spent in the current turn (one image), and for cells, the time per cell
+ * -- the count, total, and maximum of all spans since created (or reset)
+ * -- a histogram of all spans, with fixed buckets; bucket i holds spans from 2^i to
+ *    2^(i+1) microseconds (bucket 0 also holds anything shorter, the last bucket anything
+ *    longer)
+ *
+ * A turn starts with newTurn(). The analyzer calls it for each image analyzed.
+ *
+ * The class is not thread safe; each analyzer has its own timer. Timers can be merged to
+ * see the totals for several analyzers.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+public class AnalysisTimer {
+
+	// the stages of analysis that are timed
+	public enum Stage {
+		TOTAL, // complete analysis of an image
+		DECODE, // decode of the image
+		LOCATE, // finding the board in the scene
+		CROP, // crop (or warp) of the game board, gray scale and blur
+		QUALITY, // checking the quality of the game board image
+		CORNERS, // finding (or validating) cell corners
+		RECTIFY, // warping the game board to the fixed cell grid
+		PARSE, // creating the cell images
+		CELLS, // finding the type of all cells
+		CELL, // finding the type of one cell
+		DIFFERENCE, // finding the cells that changed
+		VERIFY, // verifying a cell
+		RECAPTURE, // finding the type of uncertain cells in a recaptured image
+		QUICK, // quick (first tier) cell detection
+		LEARNED, // learned classifier cell detection
+		TEMPLATE, // template matching cell detection
+		EDGES, // finding edges in a cell
+		HOUGH_REG, // finding the registration circle in a cell
+		HOUGH_DISC, // finding the token disc in a cell
+		HOUGH_INNER, // finding the inner circle of a token in a cell
+		BOARD // board circle detection for all cells
+	};
+
+	// number of histogram buckets; the last holds spans of 2^(BUCKETS-1) usec (~8 sec) or more
+	public static final int BUCKETS = 24;
+
+	private static final int stages = Stage.values().length;
+
+	// for all spans
+	private final long[] count = new long[stages];
+	private final long[] totalNanos = new long[stages];
+	private final long[] maxNanos = new long[stages];
+	private final long[][] histogram = new long[stages][BUCKETS];
+
+	// for the current turn
+	private final long[] turnNanos = new long[stages];
+	private final long[] turnCount = new long[stages];
+	private final long[][] cellNanos = new long[3][3];
+
+	/**
+	 * Starts a span.
+	 *
+	 * @return the start time to give to stop()
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Stops a span and records it.
+	 *
+	 * @param stage the span belongs to
+	 * @param startNanos from start()
+	 * @return the length of the span in nanoseconds
+	 */
+	public long stop(Stage stage, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		record(stage, nanos);
+		return nanos;
+	}
+
+	/**
+	 * Stops a span for a cell and records it, both as a CELL span and against the cell.
+	 *
+	 * @param row of the cell
+	 * @param col of the cell
+	 * @param startNanos from start()
+	 */
+	public void stopCell(int row, int col, long startNanos) {
+		cellNanos[row][col] += stop(Stage.CELL, startNanos);
+	}
+
+	/**
+	 * Records a span.
+	 *
+	 * @param stage the span belongs to
+	 * @param nanos length of the span in nanoseconds
+	 */
+	public void record(Stage stage, long nanos) {
+		int s = stage.ordinal();
+		count[s]++;
+		totalNanos[s] += nanos;
+		if (nanos > maxNanos[s]) maxNanos[s] = nanos;
+		histogram[s][bucket(nanos)]++;
+		turnNanos[s] += nanos;
+		turnCount[s]++;
+	}
+
+	/**
+	 * Finds the histogram bucket for a span.
+	 *
+	 * @param nanos length of the span in nanoseconds
+	 * @return the bucket
+	 */
+	private static int bucket(long nanos) {
+		long micros = nanos / 1000;
+		if (micros <= 1) return 0;
+		int b = 63 - Long.numberOfLeadingZeros(micros); // floor of log2
+		return (b < BUCKETS) ? b : (BUCKETS - 1);
+	}
+
+	/**
+	 * Starts a new turn; clears the times for the turn.
+	 */
+	public void newTurn() {
+		for (int s = 0; s < stages; s++) {
+			turnNanos[s] = 0;
+			turnCount[s] = 0;
+		}
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				cellNanos[row][col] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Clears everything.
+	 */
+	public void reset() {
+		newTurn();
+		for (int s = 0; s < stages; s++) {
+			count[s] = 0;
+			totalNanos[s] = 0;
+			maxNanos[s] = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				histogram[s][b] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Adds the spans recorded by another timer to this timer (not the turn times).
+	 *
+	 * @param other timer
+	 */
+	public void merge(AnalysisTimer other) {
+		for (int s = 0; s < stages; s++) {
+			count[s] += other.count[s];
+			totalNanos[s] += other.totalNanos[s];
+			if (other.maxNanos[s] > maxNanos[s]) maxNanos[s] = other.maxNanos[s];
+			for (int b = 0; b < BUCKETS; b++) {
+				histogram[s][b] += other.histogram[s][b];
+			}
+		}
+	}
+
+	/**
+	 * Returns the time spent in a stage in the current turn.
+	 *
+	 * @param stage of interest
+	 * @return nanoseconds
+	 */
+	public long getTurnNanos(Stage stage) {
+		return turnNanos[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the number of spans of a stage in the current turn.
+	 *
+	 * @param stage of interest
+	 * @return count
+	 */
+	public long getTurnCount(Stage stage) {
+		return turnCount[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the time spent finding the type of a cell in the current turn.
+	 *
+	 * @param row of the cell
+	 * @param col of the cell
+	 * @return nanoseconds
+	 */
+	public long getCellNanos(int row, int col) {
+		return cellNanos[row][col];
+	}
+
+	/**
+	 * Returns the number of spans of a stage.
+	 *
+	 * @param stage of interest
+	 * @return count
+	 */
+	public long getCount(Stage stage) {
+		return count[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the total time of all spans of a stage.
+	 *
+	 * @param stage of interest
+	 * @return nanoseconds
+	 */
+	public long getTotalNanos(Stage stage) {
+		return totalNanos[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the mean time of the spans of a stage.
+	 *
+	 * @param stage of interest
+	 * @return nanoseconds
+	 */
+	public long getMeanNanos(Stage stage) {
+		int s = stage.ordinal();
+		return (count[s] == 0) ? 0 : (totalNanos[s] / count[s]);
+	}
+
+	/**
+	 * Returns the maximum time of the spans of a stage.
+	 *
+	 * @param stage of interest
+	 * @return nanoseconds
+	 */
+	public long getMaxNanos(Stage stage) {
+		return maxNanos[stage.ordinal()];
+	}
+
+	/**
+	 * Returns an estimate of a percentile of the spans of a stage. The estimate is the
+	 * upper limit of the histogram bucket holding the percentile, so is at most 2 times
+	 * too big.
+	 *
+	 * @param stage of interest
+	 * @param percentile 0 to 100
+	 * @return nanoseconds
+	 */
+	public long getPercentileNanos(Stage stage, double percentile) {
+		int s = stage.ordinal();
+		if (count[s] == 0) return 0;
+		long target = (long) Math.ceil(count[s] * percentile / 100.0);
+		long sum = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			sum += histogram[s][b];
+			if (sum >= target) {
+				return Math.min((2L << b) * 1000, maxNanos[s]);
+			}
+		}
+		return maxNanos[s];
+	}
+
+	/**
+	 * Returns the histogram of the spans of a stage.
+	 *
+	 * @param stage of interest
+	 * @return count per bucket (a copy)
+	 */
+	public long[] getHistogram(Stage stage) {
+		return histogram[stage.ordinal()].clone();
+	}
+
+	/**
+	 * Returns a one line summary of the current turn, in milliseconds.
+	 *
+	 * @return the summary
+	 */
+	public String turnSummary() {
+		StringBuilder sb = new StringBuilder("Analysis millisec:");
+		for (Stage stage : Stage.values()) {
+			int s = stage.ordinal();
+			if (turnCount[s] > 0) {
+				sb.append(String.format(" %s=%.1f", stage.name().toLowerCase(), turnNanos[s] / 1e6));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a report of all spans, a line per stage, in milliseconds.
+	 *
+	 * @return the report
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-12s %8s %10s %10s %10s %10s%n", "stage", "count", "mean", "p50", "p95", "max"));
+		for (Stage stage : Stage.values()) {
+			int s = stage.ordinal();
+			if (count[s] == 0) continue;
+			sb.append(String.format("%-12s %8d %10.2f %10.2f %10.2f %10.2f%n", stage.name().toLowerCase(), count[s],
+					getMeanNanos(stage) / 1e6, getPercentileNanos(stage, 50) / 1e6,
+					getPercentileNanos(stage, 95) / 1e6, maxNanos[s] / 1e6));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,322 @@
+/**
+ * This class determines the type of all cells in the game board image at once. It is an
+ * alternative to running CellTypeDetectorCircle on each cell.
+ *
+ * Instead of finding edges and circles cell by cell (27 Hough passes for a full board), it
+ * finds the edges once for the whole game board and runs one Hough pass per radius band
+ * (registration circle, token disc, inner circle of a O) over the whole game board. The
+ * circles found are assigned to cells using the cell corners.
+ *
+ * The decision rules are the same as for CellTypeDetectorCircle.
+ *
+ * THERE ARE LOTS OF TUNING PAMRAMETERS THAT MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ * They are the same parameters as for CellTypeDetectorCircle (see DetectorParameters).
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.gaf.ttt.image_analysis.DetectorParameters.Param;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class BoardCircleDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// size of the board
+	private static final int dim = 3;
+
+	// times the stages of detection
+	private AnalysisTimer timer = new AnalysisTimer();
+
+	// the tuning parameters
+	private DetectorParameters params = DetectorParameters.loadProfile();
+
+	/**
+	 * Sets the tuning parameters.
+	 *
+	 * @param params to use (not copied)
+	 */
+	public void setParameters(DetectorParameters params) {
+		this.params = params;
+	}
+
+	/**
+	 * Returns the tuning parameters.
+	 *
+	 * @return the parameters in use
+	 */
+	public DetectorParameters getParameters() {
+		return params;
+	}
+
+	/**
+	 * Sets the timer used to record how long the stages of detection take.
+	 *
+	 * @param timer to use
+	 */
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Finds the type of every cell in the game board.
+	 *
+	 * Process:
+	 * 	- find edges in the whole game board once
+	 * 	- find all registration circles, all token discs, and all inner circles, each
+	 * 		in a single pass over the game board
+	 * 	- assign each circle to the cell that contains its center
+	 * 	- a cell with no registration circle is NO_REG; one with no disc is EMPTY; one
+	 * 		with a disc and an inner circle inside the disc is NAUGHT, otherwise CROSS
+	 *
+	 * @param game the color image of the game board
+	 * @param cellCorner the 4x4 cell corners in the game board
+	 * @return 3x3 array of cell types
+	 */
+	public int[][] findBoardTypes(Mat game, Point[][] cellCorner) {
+
+		double lowThreshold = params.get(Param.CANNY_LOW);
+		double ratio = params.get(Param.CANNY_RATIO);
+		int kernel_size = 3;
+
+		// border pixels of a token to ignore when looking for an inner circle
+		int off = params.getInt(Param.INNER_OFF);
+
+		// create gray scale of the game board
+		long start = timer.start();
+		Mat gray = new Mat();
+		Imgproc.cvtColor(game, gray, Imgproc.COLOR_BGR2GRAY);
+
+		// blur to reduce noise with a kernel 3x3, then find the edges
+		Mat edges = new Mat();
+		Imgproc.blur(gray, edges, new Size(3, 3));
+		Imgproc.Canny(edges, edges, lowThreshold, lowThreshold * ratio, kernel_size, true);
+
+		// blur the edges once for both of the passes that use them
+		Mat blurred = new Mat();
+		Imgproc.GaussianBlur(edges, blurred, new Size(9., 9.), 2, 2);
+		timer.stop(AnalysisTimer.Stage.EDGES, start);
+
+		// find all the registration circles
+		start = timer.start();
+		Mat circles = new Mat();
+		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.REG_DP), 
+				params.get(Param.REG_MIN_DIST), params.get(Param.REG_PARAM1), params.get(Param.REG_PARAM2),
+				params.getInt(Param.REG_RADIUS_MIN), params.getInt(Param.REG_RADIUS_MAX));
+		double[][][] circleReg = assignCircles(circles, cellCorner);
+		timer.stop(AnalysisTimer.Stage.HOUGH_REG, start);
+
+		// find all the token discs
+		start = timer.start();
+		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.DISC_DP), 
+				params.get(Param.DISC_MIN_DIST), params.get(Param.DISC_PARAM1), params.get(Param.DISC_PARAM2),
+				params.getInt(Param.DISC_RADIUS_MIN), params.getInt(Param.DISC_RADIUS_MAX));
+		double[][][] circleDisc = assignCircles(circles, cellCorner);
+		timer.stop(AnalysisTimer.Stage.HOUGH_DISC, start);
+
+		// find all the inner circles; uses the gray scale rather than the edges
+		start = timer.start();
+		Imgproc.HoughCircles(gray, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.INNER_DP), 
+				params.get(Param.INNER_MIN_DIST), params.get(Param.INNER_PARAM1), params.get(Param.INNER_PARAM2),
+				params.getInt(Param.INNER_RADIUS_MIN), params.getInt(Param.INNER_RADIUS_MAX));
+		timer.stop(AnalysisTimer.Stage.HOUGH_INNER, start);
+
+		// decide on the cell types
+		int[][] type = new int[dim][dim];
+		for (int row = 0; row < dim; row++) {
+			for (int col = 0; col < dim; col++) {
+				if (circleReg[row][col] == null) {
+					System.out.println("NO Registration circle! Abort!");
+					type[row][col] = CellTypeDetectorCircle.NO_REG;
+				} else if (circleDisc[row][col] == null) {
+					type[row][col] = TicTacToeGameBoard.EMPTY;
+				} else if (hasInnerCircle(circles, circleDisc[row][col], off)) {
+					type[row][col] = TicTacToeGameBoard.NAUGHT;
+				} else {
+					type[row][col] = TicTacToeGameBoard.CROSS;
+				}
+				if (DEBUG) System.out.println("Cell (" + row + "," + col + ") type: " + type[row][col]);
+			}
+		}
+
+		return type;
+	}
+
+	/**
+	 * Assigns circles found in the game board to cells. If more than one circle lands in
+	 * a cell, the "average" is used (as for the single cell detectors). Cell coordinates
+	 * are kept in game board coordinates.
+	 *
+	 * @param circles found by HoughCircles
+	 * @param cellCorner the 4x4 cell corners in the game board
+	 * @return 3x3 array of triples of the center (x,y) and radius; null where no circle
+	 */
+	private double[][][] assignCircles(Mat circles, Point[][] cellCorner) {
+
+		double[][][] sum = new double[dim][dim][];
+		int[][] count = new int[dim][dim];
+
+		// accumulate circles by cell
+		for (int i = 0; i < circles.total(); i++) {
+			double[] vector = circles.get(0, i);
+			if (DEBUG) System.out.println("circle center: " + vector[0] + ", " + vector[1] + " radius: " + vector[2]);
+			int[] rc = findCell(vector[0], vector[1], cellCorner);
+			if (rc == null) continue; // not in any cell, e.g., on a board line
+			if (sum[rc[0]][rc[1]] == null) {
+				sum[rc[0]][rc[1]] = new double[3];
+			}
+			sum[rc[0]][rc[1]][0] += vector[0];
+			sum[rc[0]][rc[1]][1] += vector[1];
+			sum[rc[0]][rc[1]][2] += vector[2];
+			count[rc[0]][rc[1]]++;
+		}
+
+		// get average circle per cell
+		for (int row = 0; row < dim; row++) {
+			for (int col = 0; col < dim; col++) {
+				if (sum[row][col] != null) {
+					for (int k = 0; k < 3; k++) {
+						sum[row][col][k] /= count[row][col];
+					}
+				}
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Finds the cell containing a point.
+	 *
+	 * @param x of the point
+	 * @param y of the point
+	 * @param cellCorner the 4x4 cell corners in the game board
+	 * @return row and col of the cell, or null if not in a cell
+	 */
+	private int[] findCell(double x, double y, Point[][] cellCorner) {
+		for (int row = 0; row < dim; row++) {
+			for (int col = 0; col < dim; col++) {
+				Point ul = cellCorner[row][col];
+				Point lr = cellCorner[row+1][col+1];
+				if (x >= ul.x && x < lr.x && y >= ul.y && y < lr.y) {
+					int[] rc = {row, col};
+					return rc;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks for an inner circle well inside a token disc. Like the cell detector, only
+	 * looks in the square inside the disc, less the border of the token.
+	 *
+	 * @param circles inner circles found in the game board
+	 * @param disc triple of the center (x,y) and radius of the token disc
+	 * @param off border pixels of the token to ignore
+	 * @return true if an inner circle is inside the disc
+	 */
+	private boolean hasInnerCircle(Mat circles, double[] disc, int off) {
+		double limit = disc[2] - off;
+		for (int i = 0; i < circles.total(); i++) {
+			double[] vector = circles.get(0, i);
+			double dx = vector[0] - disc[0];
+			double dy = vector[1] - disc[1];
+			if (Math.abs(dx) <= limit && Math.abs(dy) <= limit) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Benchmarks the board detector against the per cell detector.
+	 *
+	 * Each argument is a saved scene (e.g., from TicTacToeAnalyzer.saveScene()).
+	 * If a file with the same name but a ".txt" extension exists, it holds the true board
+	 * (see TicTacToeGameBoard.parseBoard()) and accuracy is reported too. Otherwise only
+	 * agreement between the two detectors is reported.
+	 *
+	 * @param args scene files
+	 */
+	public static void main(String[] args) throws IOException {
+		System.out.println("Benchmark of board circle detection vs cell circle detection");
+
+		// the baseline is the circle detector alone on each cell, not the cascade
+		TicTacToeAnalyzer analyzer = new TicTacToeAnalyzer();
+		analyzer.setTwoTier(false);
+
+		long cellNanos = 0;
+		long boardNanos = 0;
+		int cells = 0;
+		int agree = 0;
+		int labelled = 0;
+		int cellCorrect = 0;
+		int boardCorrect = 0;
+
+		for (String fileName : args) {
+			Path path = FileSystems.getDefault().getPath(fileName);
+			byte[] imageBytes = Files.readAllBytes(path);
+
+			// get the true board if known
+			TicTacToeGameBoard truth = null;
+			Path labelPath = FileSystems.getDefault().getPath(fileName.replaceFirst("\\.[^.]*$", ".txt"));
+			if (Files.exists(labelPath)) {
+				truth = TicTacToeGameBoard.parseBoard(new String(Files.readAllBytes(labelPath)));
+			}
+
+			// do the common processing once
+			analyzer.initImage(imageBytes);
+
+			// per cell detection
+			analyzer.setBoardDetection(false);
+			long start = System.nanoTime();
+			analyzer.findBoardState();
+			cellNanos += System.nanoTime() - start;
+			int[][] cellTypes = analyzer.getCellTypes();
+
+			// board detection
+			analyzer.setBoardDetection(true);
+			start = System.nanoTime();
+			analyzer.findBoardState();
+			boardNanos += System.nanoTime() - start;
+			int[][] boardTypes = analyzer.getCellTypes();
+
+			// compare
+			for (int row = 0; row < dim; row++) {
+				for (int col = 0; col < dim; col++) {
+					int boardType = boardTypes[row][col];
+					cells++;
+					if (boardType == cellTypes[row][col]) agree++;
+					if (truth != null) {
+						labelled++;
+						if (cellTypes[row][col] == truth.getCell(row, col)) cellCorrect++;
+						if (boardType == truth.getCell(row, col)) boardCorrect++;
+					}
+				}
+			}
+			System.out.println(fileName + " done");
+		}
+
+		int images = Math.max(args.length, 1);
+		System.out.println("Images: " + args.length);
+		System.out.println("Per cell detection millisec/image: " + (cellNanos / 1e6 / images));
+		System.out.println("Board detection millisec/image:    " + (boardNanos / 1e6 / images));
+		System.out.println("Cells agreeing: " + agree + " of " + cells);
+		if (labelled > 0) {
+			System.out.println("Per cell detection accuracy: " + (100.0 * cellCorrect / labelled) + "%");
+			System.out.println("Board detection accuracy:    " + (100.0 * boardCorrect / labelled) + "%");
+		}
+	}
+
+}
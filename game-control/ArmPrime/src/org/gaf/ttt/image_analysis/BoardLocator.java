@@ -0,0 +1,235 @@
+/**
+ * This class finds the game board in the full scene captured by the camera, so that the
+ * board does not have to be at a fixed place in the scene.
+ *
+ * Finding the board is done once per session (or when the board seems to have moved), at
+ * low resolution:
+ * 	- shrink the scene with an image pyramid
+ * 	- find edges, then contours, and keep the contours that simplify to a convex
+ * 		four sided polygon of about the right size and shape; the largest is the outside
+ * 		of the board
+ * 	- scale the four corners back to the full scene and refine them to sub-pixel
+ * 	- compute the homography (perspective transform) from the scene to a canonical
+ * 		board image, where the outside corners are at fixed places
+ *
+ * After that, each image needs only a warp of the scene to get the canonical board image.
+ * The canonical board is the same size as the old fixed crop, with the outside corners
+ * well inside the regions where TicTacToeAnalyzer looks for them. That holds only if the
+ * outline found is the outside of the grid; if the board has a margin around the grid,
+ * the grid lands inside those regions, so TicTacToeAnalyzer does not find the corners
+ * and falls back to the fixed crop.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+public class BoardLocator {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the canonical board image, and where the outside corners go in it
+	public static final int CANONICAL_SIZE = 625;
+	public static final int CANONICAL_LOW = 30; // x of left corners, y of top corners
+	public static final int CANONICAL_HIGH = 595; // x of right corners, y of bottom corners
+
+	// number of pyramid levels to shrink the scene; each halves the size
+	private static final int levels = 3;
+
+	// edge detection at low resolution
+	private static final double lowThreshold = 50.0;
+	private static final int ratio = 3;
+
+	// limits on the board outline at low resolution
+	private static final double minAreaFraction = 0.02; // of the shrunk scene
+	private static final double maxAreaFraction = 0.30;
+	private static final double maxSideRatio = 1.4; // longest side / shortest side
+	private static final double approxFactor = 0.02; // of perimeter, to simplify contours
+
+	// the transform from scene to canonical board; null if the board is not located
+	private Mat homography = null;
+
+	// the outside corners of the board in the scene (TL, TR, BR, BL)
+	private Point[] boardCorners = null;
+
+	/**
+	 * Finds the board in the scene, and computes the transform to the canonical board.
+	 *
+	 * @param scene the full scene (color)
+	 * @return true if the board was found
+	 */
+	public boolean locate(Mat scene) {
+		homography = null;
+		boardCorners = null;
+
+		// shrink the scene
+		Mat small = scene;
+		for (int i = 0; i < levels; i++) {
+			Mat next = new Mat();
+			Imgproc.pyrDown(small, next);
+			small = next;
+		}
+		double scale = 1 << levels;
+
+		// find edges
+		Mat gray = new Mat();
+		Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0);
+		Mat edges = new Mat();
+		Imgproc.Canny(gray, edges, lowThreshold, lowThreshold * ratio);
+		Imgproc.dilate(edges, edges, new Mat()); // close small gaps in the outline
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("locate-edges.png", edges);
+
+		// find the board outline
+		Point[] quad = findOutline(edges, small.rows() * small.cols());
+		if (quad == null) {
+			System.out.println("BoardLocator: no board outline found");
+			return false;
+		}
+
+		// back to full resolution, and refine
+		for (Point pt : quad) {
+			pt.x *= scale;
+			pt.y *= scale;
+		}
+		MatOfPoint2f corners = new MatOfPoint2f(quad);
+		Mat fullGray = new Mat();
+		Imgproc.cvtColor(scene, fullGray, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.cornerSubPix(fullGray, corners, new Size(scale, scale), new Size(-1, -1),
+				new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.1));
+		boardCorners = corners.toArray();
+		if (DEBUG) {
+			for (Point pt : boardCorners) System.out.println("Board corner: " + pt);
+		}
+
+		// compute the transform
+		MatOfPoint2f canonical = new MatOfPoint2f(
+				new Point(CANONICAL_LOW, CANONICAL_LOW), new Point(CANONICAL_HIGH, CANONICAL_LOW),
+				new Point(CANONICAL_HIGH, CANONICAL_HIGH), new Point(CANONICAL_LOW, CANONICAL_HIGH));
+		homography = Imgproc.getPerspectiveTransform(corners, canonical);
+		return true;
+	}
+
+	/**
+	 * Finds the outline of the board among the contours in an edge image.
+	 *
+	 * @param edges the edge image
+	 * @param imageArea area of the edge image
+	 * @return the corners of the outline (TL, TR, BR, BL), or null if none found
+	 */
+	private Point[] findOutline(Mat edges, double imageArea) {
+
+		List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+		Imgproc.findContours(edges, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+		if (DEBUG) System.out.println("contours: " + contours.size());
+
+		Point[] best = null;
+		double bestArea = 0;
+		for (MatOfPoint contour : contours) {
+			// simplify to a polygon
+			MatOfPoint2f curve = new MatOfPoint2f(contour.toArray());
+			MatOfPoint2f approx = new MatOfPoint2f();
+			Imgproc.approxPolyDP(curve, approx, approxFactor * Imgproc.arcLength(curve, true), true);
+			Point[] pts = approx.toArray();
+			if (pts.length != 4 || !Imgproc.isContourConvex(new MatOfPoint(pts))) continue;
+
+			// check size and shape
+			double area = Math.abs(Imgproc.contourArea(approx));
+			if (area < minAreaFraction * imageArea || area > maxAreaFraction * imageArea) continue;
+			double minSide = Double.MAX_VALUE;
+			double maxSide = 0;
+			for (int i = 0; i < 4; i++) {
+				Point p = pts[i];
+				Point q = pts[(i + 1) % 4];
+				double side = Math.hypot(p.x - q.x, p.y - q.y);
+				minSide = Math.min(minSide, side);
+				maxSide = Math.max(maxSide, side);
+			}
+			if (maxSide > maxSideRatio * minSide) continue;
+
+			if (DEBUG) System.out.println("candidate outline area: " + area);
+			if (area > bestArea) {
+				bestArea = area;
+				best = pts;
+			}
+		}
+
+		return (best == null) ? null : orderCorners(best);
+	}
+
+	/**
+	 * Puts the corners of a four sided polygon in order TL, TR, BR, BL. The top left has
+	 * the smallest x + y, the bottom right the largest; the top right has the largest
+	 * x - y, the bottom left the smallest.
+	 *
+	 * @param pts the corners in any order
+	 * @return the corners in order
+	 */
+	private static Point[] orderCorners(Point[] pts) {
+		Point[] ordered = new Point[4];
+		for (Point pt : pts) {
+			if (ordered[0] == null || (pt.x + pt.y) < (ordered[0].x + ordered[0].y)) ordered[0] = pt;
+			if (ordered[2] == null || (pt.x + pt.y) > (ordered[2].x + ordered[2].y)) ordered[2] = pt;
+			if (ordered[1] == null || (pt.x - pt.y) > (ordered[1].x - ordered[1].y)) ordered[1] = pt;
+			if (ordered[3] == null || (pt.x - pt.y) < (ordered[3].x - ordered[3].y)) ordered[3] = pt;
+		}
+		return ordered;
+	}
+
+	/**
+	 * Creates the canonical board image from a scene.
+	 *
+	 * @param scene the full scene (color)
+	 * @param game to hold the canonical board image
+	 */
+	public void warp(Mat scene, Mat game) {
+		Imgproc.warpPerspective(scene, game, homography, new Size(CANONICAL_SIZE, CANONICAL_SIZE),
+				Imgproc.INTER_LINEAR);
+	}
+
+	/**
+	 * Indicates if the board has been located.
+	 *
+	 * @return true if located
+	 */
+	public boolean isLocated() {
+		return homography != null;
+	}
+
+	/**
+	 * Forgets the board location, so it is found again.
+	 */
+	public void invalidate() {
+		homography = null;
+		boardCorners = null;
+	}
+
+	/**
+	 * Returns the transform from the scene to the canonical board.
+	 *
+	 * @return the homography (3x3); null if not located
+	 */
+	public Mat getHomography() {
+		return homography;
+	}
+
+	/**
+	 * Returns the outside corners of the board in the scene.
+	 *
+	 * @return corners TL, TR, BR, BL; null if not located
+	 */
+	public Point[] getBoardCorners() {
+		return boardCorners;
+	}
+
+}
@@ -0,0 +1,312 @@
+/**
+ * This class analyzes a burst of images of the board, taken in quick succession, and
+ * decides the type of each cell by a vote, so one bad image (e.g., a reflection hiding a
+ * registration circle) does not end a turn. Each image is analyzed in the background, on
+ * a pool of worker threads, as it arrives.
+ *
+ * Each image votes for the type it found for each cell, weighted by the confidence in
+ * the type; NO_REG gets no vote. A cell is decided once the lead of its winning type is
+ * more than the votes still to come could overturn (at most one per image). Once all
+ * cells are decided the burst can stop early; the images still to be analyzed are
+ * abandoned.
+ *
+ * Each worker has its own TicTacToeAnalyzer, since an analyzer is not thread safe,
+ * configured like the main analyzer (see TicTacToeAnalyzer.newAnalyzer()); each finds
+ * the board geometry from its first image. A worker's analyzer is made when it gets its
+ * first image, so configure the main analyzer before capturing bursts. The
+ * result goes to the main analyzer, like the result of tiles (see TileAnalyzer), along
+ * with the last image of the burst, so it can be saved (see saveScene()). The workers do
+ * not record into the analyzer timer.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.awt.image.ImagingOpException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.opencv.core.Mat;
+
+public class BurstAnalyzer {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the types that get votes
+	private static final int[] TYPES = {TicTacToeGameBoard.EMPTY, TicTacToeGameBoard.CROSS,
+			TicTacToeGameBoard.NAUGHT};
+
+	private final TicTacToeAnalyzer ta;
+	private final ExecutorService pool;
+	private final int frames; // images in a burst
+
+	// each worker has its own analyzer, configured like the main one
+	private final ThreadLocal<TicTacToeAnalyzer> localAnalyzer = new ThreadLocal<TicTacToeAnalyzer>() {
+		@Override
+		protected TicTacToeAnalyzer initialValue() {
+			return ta.newAnalyzer();
+		}
+	};
+
+	/**
+	 * The result of the analysis of one image.
+	 */
+	private static class Frame {
+		final int[][] types;
+		final double[][] confidence;
+		final Mat[][] cells;
+
+		Frame(int[][] types, double[][] confidence, Mat[][] cells) {
+			this.types = types;
+			this.confidence = confidence;
+			this.cells = cells;
+		}
+	}
+
+	// the current burst
+	private CompletionService<Frame> completion = null;
+	private final List<Future<Frame>> results = new ArrayList<Future<Frame>>();
+	private TicTacToeGameBoard logical = null;
+	private byte[] lastImage = null; // encoded, for the main analyzer to save
+	private int completed = 0; // images analyzed (or failed)
+	private final double[][][] votes = new double[3][3][TYPES.length];
+	private final double[][][] bestVote = new double[3][3][TYPES.length]; // highest confidence
+	private final Mat[][][] candidates = new Mat[3][3][TYPES.length]; // cell image of best vote
+	private long startNanos = 0;
+
+	// metrics
+	private long bursts = 0;
+	private long captured = 0; // images added
+	private long analyzed = 0; // images whose votes counted
+	private long failed = 0; // images that could not be analyzed
+	private long earlyExits = 0; // bursts decided before all images were taken
+	private long badBursts = 0; // bursts with a cell undecided
+	private long totalNanos = 0;
+
+	/**
+	 * Creates a burst analyzer.
+	 *
+	 * @param ta the analyzer that gets the results
+	 * @param frames number of images in a burst (at least 1)
+	 * @param threads number of worker threads
+	 */
+	public BurstAnalyzer(TicTacToeAnalyzer ta, int frames, int threads) {
+		this.ta = ta;
+		this.frames = Math.max(1, frames);
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Starts a burst.
+	 *
+	 * @param logical representation of the board, a hint for the analysis; may be null
+	 */
+	public void start(TicTacToeGameBoard logical) {
+		this.logical = logical;
+		startNanos = System.nanoTime();
+		completion = new ExecutorCompletionService<Frame>(pool); // nothing left from the last burst
+		results.clear();
+		lastImage = null;
+		completed = 0;
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				Arrays.fill(votes[row][col], 0);
+				Arrays.fill(bestVote[row][col], 0);
+				Arrays.fill(candidates[row][col], null);
+			}
+		}
+		bursts++;
+	}
+
+	/**
+	 * Adds an image; it is analyzed in the background. The bytes are copied, so the
+	 * buffer can be reused at once.
+	 *
+	 * @param bytes holding the encoded (JPEG) image
+	 * @param length of the encoded image
+	 */
+	public void addFrame(byte[] bytes, int length) {
+		final byte[] image = Arrays.copyOf(bytes, length);
+		final TicTacToeGameBoard hint = logical;
+		lastImage = image;
+		captured++;
+		results.add(completion.submit(new Callable<Frame>() {
+			@Override
+			public Frame call() {
+				TicTacToeAnalyzer analyzer = localAnalyzer.get();
+				try {
+					analyzer.analyzeImage(image, hint);
+				} catch (ImagingOpException ex) {
+					System.out.println("BurstAnalyzer: image not analyzed; " + ex.getMessage());
+					return null;
+				}
+				return new Frame(analyzer.getCellTypes(), analyzer.getCellConfidence(), analyzer.getCells());
+			}
+		}));
+	}
+
+	/**
+	 * Indicates if every cell is decided by the images analyzed so far, so the burst
+	 * can stop. Does not wait.
+	 *
+	 * @return true if decided
+	 */
+	public boolean isDecided() {
+		Future<Frame> done;
+		while ((done = completion.poll()) != null) {
+			vote(done);
+		}
+		return decided();
+	}
+
+	/**
+	 * Waits until every cell is decided, or all images are analyzed, and gives the
+	 * results to the analyzer. Images not yet analyzed are abandoned.
+	 *
+	 * @return true if all cells determined
+	 * @throws ImagingOpException if no image was added
+	 */
+	public boolean finish() throws ImagingOpException {
+		if (results.isEmpty()) {
+			throw new ImagingOpException("EXCEPTION!!! No images in burst");
+		}
+		try {
+			while (!isDecided() && completed < results.size()) {
+				vote(completion.take());
+			}
+		} catch (InterruptedException ex) {
+			throw new ImagingOpException("EXCEPTION!!! Burst analysis interrupted");
+		}
+		if (results.size() < frames) earlyExits++;
+		for (Future<Frame> result : results) {
+			result.cancel(false); // does nothing if done
+		}
+
+		// the winners
+		boolean allDecided = true;
+		int[][] types = new int[3][3];
+		double[][] confidence = new double[3][3];
+		Mat[][] cells = new Mat[3][3];
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				double[] v = votes[row][col];
+				int winner = winner(v);
+				double total = 0;
+				for (double w : v) {
+					total += w;
+				}
+				if (v[winner] > 0) {
+					types[row][col] = TYPES[winner];
+					confidence[row][col] = v[winner] / total;
+					cells[row][col] = candidates[row][col][winner];
+				} else {
+					types[row][col] = CellTypeDetectorCircle.NO_REG;
+					allDecided = false;
+					cells[row][col] = new Mat(); // no image had it
+				}
+			}
+		}
+		if (!allDecided) badBursts++;
+		totalNanos += System.nanoTime() - startNanos;
+		if (DEBUG) System.out.println("BurstAnalyzer: " + completed + " of " + results.size() + " images voted");
+		boolean OK = ta.setCellResults(cells, types, confidence);
+		ta.keepScene(lastImage, lastImage.length); // after the results, which clear the scene
+		return OK;
+	}
+
+	/**
+	 * Counts the votes of an analyzed image.
+	 */
+	private void vote(Future<Frame> done) {
+		completed++;
+		Frame frame;
+		try {
+			frame = done.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			frame = null;
+		}
+		if (frame == null) {
+			failed++;
+			return;
+		}
+		analyzed++;
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				int type = frame.types[row][col];
+				for (int t = 0; t < TYPES.length; t++) {
+					if (TYPES[t] != type) continue;
+					double weight = frame.confidence[row][col];
+					votes[row][col][t] += weight;
+					if (weight >= bestVote[row][col][t]) {
+						bestVote[row][col][t] = weight;
+						candidates[row][col][t] = frame.cells[row][col];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indicates if every cell is decided: the lead of its winner cannot be overturned by
+	 * the images still to come.
+	 */
+	private boolean decided() {
+		int toCome = frames - completed;
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				double[] v = votes[row][col];
+				int winner = winner(v);
+				double next = 0;
+				for (int t = 0; t < v.length; t++) {
+					if (t != winner) next = Math.max(next, v[t]);
+				}
+				if (v[winner] == 0 || v[winner] - next <= toCome) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the index of the type with the most votes.
+	 */
+	private static int winner(double[] v) {
+		int best = 0;
+		for (int t = 1; t < v.length; t++) {
+			if (v[t] > v[best]) best = t;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the number of images in a burst.
+	 *
+	 * @return images
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Bursts: %d images: %d analyzed: %d failed: %d early exits: %d " +
+				"undecided: %d mean millisec: %.1f", bursts, captured, analyzed, failed, earlyExits, badBursts,
+				(bursts == 0) ? 0.0 : (totalNanos / 1e6 / bursts));
+	}
+
+}
@@ -0,0 +1,190 @@
+/**
+ * This class learns the model for CellTypeDetectorLearned from a labelled scene corpus
+ * (see SceneCorpus), and compares the learned detector with CellTypeDetectorCircle on the
+ * same cells, for accuracy and for time per cell.
+ *
+ * The scenes are cut into cells just once, and the features of each cell kept. One scene
+ * in five is held out for the comparison; the rest are for training. Training is
+ * stochastic gradient descent on the cross entropy, with a little weight decay, over a
+ * number of epochs (passes over the training cells, in random order).
+ *
+ * Usage: CellClassifierTrainer corpusDir [epochs] [model]
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.awt.image.ImagingOpException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+public class CellClassifierTrainer {
+
+	// learning
+	private static final double learningRate = 0.01;
+	private static final double decay = 1e-4; // weight decay
+	private static final int holdOut = 5; // 1 in this many scenes is held out
+	private static final long seed = 1;
+
+	/**
+	 * A cell from the corpus, with its features.
+	 */
+	private static class TrainCell {
+		final Mat src; // the cell image (color); only kept for testing, else null
+		final int truth; // the true cell type
+		final int label; // the class of the true type
+		final double[] x; // features
+
+		TrainCell(Mat src, int truth, double[] x) {
+			this.src = src;
+			this.truth = truth;
+			int c = 0;
+			while (CellTypeDetectorLearned.TYPES[c] != truth) c++;
+			this.label = c;
+			this.x = x;
+		}
+	}
+
+	private final List<TrainCell> training = new ArrayList<TrainCell>();
+	private final List<TrainCell> testing = new ArrayList<TrainCell>();
+	private final CellTypeDetectorLearned detector = new CellTypeDetectorLearned();
+
+	/**
+	 * Creates a trainer, cutting all the labelled scenes of a corpus into cells.
+	 *
+	 * @param corpus the scenes
+	 */
+	public CellClassifierTrainer(SceneCorpus corpus) {
+		TicTacToeAnalyzer analyzer = new TicTacToeAnalyzer();
+		int index = 0;
+		for (SceneCorpus.Scene scene : corpus.getScenes()) {
+			if (scene.truth == null) continue;
+			try {
+				analyzer.initImage(scene.imageBytes);
+			} catch (ImagingOpException ex) {
+				System.out.println(scene.name + ": skipped; " + ex.getMessage());
+				continue;
+			}
+			boolean test = (index++ % holdOut == holdOut - 1);
+			List<TrainCell> cells = test ? testing : training;
+			
+			// the cells are views into the analyzer's reused board, so copy only the
+			// cells that are needed after the next scene (the held out cells)
+			for (int row = 0; row < 3; row++) {
+				for (int col = 0; col < 3; col++) {
+					Mat view = analyzer.cell[row][col];
+					double[] x = new double[CellTypeDetectorLearned.FEATURES];
+					detector.extractFeatures(view, x);
+					Mat src = test ? view.clone() : null;
+					cells.add(new TrainCell(src, scene.truth.getCell(row, col), x));
+				}
+			}
+		}
+		System.out.println("Cells for training: " + training.size() + " testing: " + testing.size());
+	}
+
+	/**
+	 * Learns the weights of the model.
+	 *
+	 * @param epochs passes over the training cells
+	 */
+	public void train(int epochs) {
+		double[][] w = detector.getWeights();
+		int features = CellTypeDetectorLearned.FEATURES;
+		double[] p = new double[CellTypeDetectorLearned.CLASSES];
+		Random random = new Random(seed);
+
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			Collections.shuffle(training, random);
+			double rate = learningRate / (1 + 0.1 * epoch);
+			double loss = 0;
+			int correct = 0;
+			for (TrainCell cell : training) {
+				int best = detector.score(cell.x, p);
+				if (best == cell.label) correct++;
+				loss -= Math.log(Math.max(1e-12, p[cell.label]));
+
+				// gradient of the cross entropy: p - 1 for the true class, p for the others
+				for (int c = 0; c < w.length; c++) {
+					double g = p[c] - ((c == cell.label) ? 1 : 0);
+					double[] wc = w[c];
+					for (int i = 0; i < features; i++) {
+						wc[i] -= rate * (g * cell.x[i] + decay * wc[i]);
+					}
+					wc[features] -= rate * g;
+				}
+			}
+			System.out.println(String.format("Epoch %d loss: %.4f training accuracy: %.2f%%", epoch,
+					loss / Math.max(1, training.size()), 100.0 * correct / Math.max(1, training.size())));
+		}
+	}
+
+	/**
+	 * Compares the learned detector and the circle detector on the held out cells.
+	 */
+	public void compare() {
+		if (testing.isEmpty()) {
+			System.out.println("No cells held out for testing");
+			return;
+		}
+		CellTypeDetectorCircle circle = new CellTypeDetectorCircle();
+		int learnedCorrect = 0;
+		int circleCorrect = 0;
+		long learnedNanos = 0;
+		long circleNanos = 0;
+		for (TrainCell cell : testing) {
+			long start = System.nanoTime();
+			int type = detector.findCellType(cell.src);
+			learnedNanos += System.nanoTime() - start;
+			if (type == cell.truth) learnedCorrect++;
+
+			start = System.nanoTime();
+			type = circle.findCellType(cell.src);
+			circleNanos += System.nanoTime() - start;
+			if (type == cell.truth) circleCorrect++;
+		}
+		int n = testing.size();
+		System.out.println(String.format("Learned accuracy: %.2f%% cell millisec: %.3f", 100.0 * learnedCorrect / n,
+				learnedNanos / 1e6 / n));
+		System.out.println(String.format("Circle  accuracy: %.2f%% cell millisec: %.3f", 100.0 * circleCorrect / n,
+				circleNanos / 1e6 / n));
+	}
+
+	/**
+	 * Returns the detector with the learned model.
+	 *
+	 * @return the detector
+	 */
+	public CellTypeDetectorLearned getDetector() {
+		return detector;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: CellClassifierTrainer corpusDir [epochs] [model]");
+			return;
+		}
+
+		// Load the native OpenCV library.
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		SceneCorpus corpus = new SceneCorpus(FileSystems.getDefault().getPath(args[0]));
+		int epochs = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		Path model = FileSystems.getDefault().getPath((args.length > 2) ? args[2] : CellTypeDetectorLearned.MODEL);
+		System.out.println("Scenes: " + corpus.size() + " labelled: " + corpus.labelled() + " epochs: " + epochs);
+
+		CellClassifierTrainer trainer = new CellClassifierTrainer(corpus);
+		trainer.train(epochs);
+		trainer.compare();
+		trainer.getDetector().save(model);
+		System.out.println("Saved model: " + model.toAbsolutePath());
+	}
+
+}
@@ -0,0 +1,299 @@
+/**
+ * This class finds statistics of the pixels of a cell image in a disc (or ring) around a
+ * point: the mean of each channel, the mean and variance of the brightness, and a
+ * histogram of each channel. It replaces drawing a mask the size of the cell for each
+ * statistic.
+ *
+ * The shape is precomputed as a table of spans, one or two per row: the offsets from
+ * the center of the first and last pixel in the shape. Each row of the cell is read once
+ * from the Mat into a buffer, and each span is a simple loop over the buffer, which the
+ * JIT can unroll and vectorize. Nothing is allocated per call, unless the cell is wider
+ * than any before.
+ *
+ * Brightness is (b + g + r) / 3. Each pixel is also classed as red, dark or light (in
+ * that order of precedence) against levels that can be set; CellTypeDetectorQuick uses
+ * the fractions of each as its first tier of classification.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+public class CellStatistics {
+
+	// histogram bins per channel; a bin holds 256 / BINS levels
+	public static final int BINS = 16;
+	private static final int binShift = 4;
+
+	// the shape: for each span, the row offset, and the first and last column offset
+	private final int[] spanDy;
+	private final int[] spanFirst;
+	private final int[] spanLast;
+	private final int extent; // largest offset in any direction
+
+	// pixel classification
+	private int darkLevel = 100; // gray below this is dark
+	private int lightLevel = 150; // gray above this is light
+	private double redFactor = 2.5; // red if factor * b < r and factor * g < r
+
+	// reused for each call
+	private byte[] rowBytes = new byte[0];
+	private final long[] sum = new long[3];
+	private final int[][] histogram = new int[3][BINS];
+
+	// results of the last call
+	private int count = 0;
+	private final double[] mean = new double[3];
+	private double grayMean = 0;
+	private double grayVariance = 0;
+	private int light = 0;
+	private int dark = 0;
+	private int red = 0;
+
+	/**
+	 * Creates statistics over a disc.
+	 *
+	 * @param radius of the disc
+	 */
+	public CellStatistics(int radius) {
+		this(0, radius);
+	}
+
+	/**
+	 * Creates statistics over a ring; pixels at a distance from the center from inner to
+	 * outer (inclusive). An inner radius of 0 means a disc.
+	 *
+	 * @param inner radius
+	 * @param outer radius
+	 */
+	public CellStatistics(int inner, int outer) {
+		extent = outer;
+		int[] dys = new int[2 * (2 * outer + 1)];
+		int[] firsts = new int[dys.length];
+		int[] lasts = new int[dys.length];
+		int spans = 0;
+		int outer2 = outer * outer;
+		int inner2 = inner * inner;
+		for (int dy = -outer; dy <= outer; dy++) {
+			int outerHalf = (int) Math.floor(Math.sqrt(outer2 - dy * dy));
+			if (inner == 0 || dy * dy > inner2) { // one span, across the row
+				dys[spans] = dy;
+				firsts[spans] = -outerHalf;
+				lasts[spans++] = outerHalf;
+			} else { // two spans, either side of the hole
+				int innerHalf = (int) Math.ceil(Math.sqrt(inner2 - dy * dy));
+				if (innerHalf * innerHalf + dy * dy < inner2) innerHalf++;
+				if (innerHalf > outerHalf) continue;
+				dys[spans] = dy;
+				firsts[spans] = -outerHalf;
+				lasts[spans++] = -innerHalf;
+				dys[spans] = dy;
+				firsts[spans] = innerHalf;
+				lasts[spans++] = outerHalf;
+			}
+		}
+		spanDy = Arrays.copyOf(dys, spans);
+		spanFirst = Arrays.copyOf(firsts, spans);
+		spanLast = Arrays.copyOf(lasts, spans);
+	}
+
+	/**
+	 * Sets the levels used to class pixels as dark, light or red.
+	 *
+	 * @param darkLevel gray below this is dark
+	 * @param lightLevel gray above this is light
+	 * @param redFactor red if factor * b < r and factor * g < r
+	 */
+	public void setLevels(int darkLevel, int lightLevel, double redFactor) {
+		this.darkLevel = darkLevel;
+		this.lightLevel = lightLevel;
+		this.redFactor = redFactor;
+	}
+
+	/**
+	 * Finds the statistics of the shape around a point. Pixels of the shape outside the
+	 * image are left out.
+	 *
+	 * @param src the cell image (color, 3 channels)
+	 * @param center of the shape
+	 * @return number of pixels in the statistics
+	 */
+	public int compute(Mat src, Point center) {
+		int cx = (int) Math.round(center.x);
+		int cy = (int) Math.round(center.y);
+		int cols = src.cols();
+		int rows = src.rows();
+		int channels = src.channels();
+		if (rowBytes.length < cols * channels) {
+			rowBytes = new byte[cols * channels];
+		}
+
+		// clear
+		count = 0;
+		light = 0;
+		dark = 0;
+		red = 0;
+		long graySum = 0;
+		long graySumSq = 0;
+		Arrays.fill(sum, 0);
+		for (int[] h : histogram) {
+			Arrays.fill(h, 0);
+		}
+
+		// the spans, a row at a time
+		int lastRow = -1;
+		for (int s = 0; s < spanDy.length; s++) {
+			int y = cy + spanDy[s];
+			if (y < 0 || y >= rows) continue;
+			if (y != lastRow) {
+				src.get(y, 0, rowBytes);
+				lastRow = y;
+			}
+			int first = Math.max(0, cx + spanFirst[s]);
+			int last = Math.min(cols - 1, cx + spanLast[s]);
+			int[] hb = histogram[0];
+			int[] hg = histogram[1];
+			int[] hr = histogram[2];
+			long sb = 0;
+			long sg = 0;
+			long sr = 0;
+			for (int x = first; x <= last; x++) {
+				int i = channels * x;
+				int b = rowBytes[i] & 0xff;
+				int g = rowBytes[i + 1] & 0xff;
+				int r = rowBytes[i + 2] & 0xff;
+				sb += b;
+				sg += g;
+				sr += r;
+				int gray = (b + g + r) / 3;
+				graySum += gray;
+				graySumSq += gray * gray;
+				hb[b >> binShift]++;
+				hg[g >> binShift]++;
+				hr[r >> binShift]++;
+				if ((redFactor * b) < r && (redFactor * g) < r) {
+					red++;
+				} else if (gray < darkLevel) {
+					dark++;
+				} else if (gray > lightLevel) {
+					light++;
+				}
+			}
+			sum[0] += sb;
+			sum[1] += sg;
+			sum[2] += sr;
+			if (last >= first) count += last - first + 1;
+		}
+
+		// finish
+		if (count == 0) {
+			Arrays.fill(mean, 0);
+			grayMean = 0;
+			grayVariance = 0;
+		} else {
+			for (int c = 0; c < 3; c++) {
+				mean[c] = (double) sum[c] / count;
+			}
+			grayMean = (double) graySum / count;
+			grayVariance = Math.max(0, (double) graySumSq / count - grayMean * grayMean);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of pixels in the last statistics.
+	 *
+	 * @return count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of each channel.
+	 *
+	 * @return the means (b, g, r)
+	 */
+	public Scalar getMean() {
+		return new Scalar(mean[0], mean[1], mean[2]);
+	}
+
+	/**
+	 * Returns the mean of a channel.
+	 *
+	 * @param channel 0 (b), 1 (g), or 2 (r)
+	 * @return the mean
+	 */
+	public double getMean(int channel) {
+		return mean[channel];
+	}
+
+	/**
+	 * Returns the mean brightness.
+	 *
+	 * @return mean
+	 */
+	public double getGrayMean() {
+		return grayMean;
+	}
+
+	/**
+	 * Returns the variance of the brightness.
+	 *
+	 * @return variance
+	 */
+	public double getGrayVariance() {
+		return grayVariance;
+	}
+
+	/**
+	 * Returns the fraction of light pixels.
+	 *
+	 * @return fraction
+	 */
+	public double getLightFraction() {
+		return (count == 0) ? 0 : (double) light / count;
+	}
+
+	/**
+	 * Returns the fraction of dark pixels (not red).
+	 *
+	 * @return fraction
+	 */
+	public double getDarkFraction() {
+		return (count == 0) ? 0 : (double) dark / count;
+	}
+
+	/**
+	 * Returns the fraction of red pixels.
+	 *
+	 * @return fraction
+	 */
+	public double getRedFraction() {
+		return (count == 0) ? 0 : (double) red / count;
+	}
+
+	/**
+	 * Returns the histogram of a channel.
+	 *
+	 * @param channel 0 (b), 1 (g), or 2 (r)
+	 * @return counts for BINS bins (not a copy)
+	 */
+	public int[] getHistogram(int channel) {
+		return histogram[channel];
+	}
+
+	/**
+	 * Returns the largest offset of the shape from its center.
+	 *
+	 * @return pixels
+	 */
+	public int getExtent() {
+		return extent;
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * This class runs a set of cell type detectors as a cascade. The detectors are tried
+ * cheapest first; the first confident answer is used. If no detector is confident, the
+ * answer of the last (most capable) detector is used.
+ * 
+ * For each detector, the cascade counts the cells it decided (hits) and the cells it
+ * passed on to the next detector (escalations), along with the time it took. These show
+ * how well a mix of detectors works, and where the time goes.
+ * 
+ * The cascade is itself a detector, so a cascade can be used wherever a detector can.
+ * 
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+public class CellTypeCascade implements CellTypeDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the detectors, cheapest first
+	private final List<CellTypeDetector> detectors;
+
+	// confidence at or above which an answer is used
+	private double threshold = CellTypeDetectorQuick.CONFIDENT;
+
+	// the detector that decided the last cell
+	private CellTypeDetector lastDetector = null;
+
+	// counters per detector
+	private final long[] hits;
+	private final long[] escalations;
+	private final long[] nanos;
+
+	/**
+	 * Creates a cascade.
+	 * 
+	 * @param detectors to use, in any order; at least one
+	 */
+	public CellTypeCascade(CellTypeDetector... detectors) {
+		if (detectors.length == 0) {
+			throw new IllegalArgumentException("Cascade needs at least one detector");
+		}
+		this.detectors = new ArrayList<CellTypeDetector>(Arrays.asList(detectors));
+		Collections.sort(this.detectors, new Comparator<CellTypeDetector>() {
+			@Override
+			public int compare(CellTypeDetector d1, CellTypeDetector d2) {
+				return Double.compare(d1.getCost(), d2.getCost());
+			}
+		});
+		hits = new long[detectors.length];
+		escalations = new long[detectors.length];
+		nanos = new long[detectors.length];
+	}
+
+	/**
+	 * Finds the type of a cell, trying the detectors cheapest first until one is confident.
+	 * 
+	 * @param src the original cell image (color)
+	 * @return the type of cell, with the confidence of the detector that decided, and the 
+	 * cost of all detectors tried
+	 */
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long total = 0;
+		CellTypeResult result = null;
+		int last = detectors.size() - 1;
+		for (int i = 0; i <= last; i++) {
+			result = detectors.get(i).detectCellType(src);
+			total += result.nanos;
+			nanos[i] += result.nanos;
+			if (i == last || result.confidence >= threshold) {
+				hits[i]++;
+				lastDetector = detectors.get(i);
+				break;
+			}
+			if (DEBUG) System.out.println("Escalating from " + detectors.get(i).getName() + "; " + result);
+			escalations[i]++;
+		}
+		return new CellTypeResult(result.type, result.confidence, total);
+	}
+
+	/**
+	 * Returns the cost of the cheapest detector, the least a cell can cost.
+	 * 
+	 * @return cost in millisec
+	 */
+	@Override
+	public double getCost() {
+		return detectors.get(0).getCost();
+	}
+
+	@Override
+	public String getName() {
+		StringBuilder sb = new StringBuilder();
+		for (CellTypeDetector detector : detectors) {
+			if (sb.length() > 0) sb.append(">");
+			sb.append(detector.getName());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		for (CellTypeDetector detector : detectors) {
+			detector.setTimer(timer);
+		}
+	}
+
+	/**
+	 * Sets the confidence at or above which an answer is used.
+	 * 
+	 * @param threshold 0 to 1
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the detectors, in the order tried.
+	 * 
+	 * @return the detectors (a copy)
+	 */
+	public List<CellTypeDetector> getDetectors() {
+		return new ArrayList<CellTypeDetector>(detectors);
+	}
+
+	/**
+	 * Returns the detector that decided the last cell, e.g., to know if its answer came
+	 * from a particular detector.
+	 * 
+	 * @return the detector; null if no cell yet
+	 */
+	public CellTypeDetector getLastDetector() {
+		return lastDetector;
+	}
+
+	/**
+	 * Returns the count of cells a detector decided.
+	 * 
+	 * @param index of the detector, in the order tried
+	 * @return count
+	 */
+	public long getHits(int index) {
+		return hits[index];
+	}
+
+	/**
+	 * Returns the count of cells a detector passed on to the next detector.
+	 * 
+	 * @param index of the detector, in the order tried
+	 * @return count
+	 */
+	public long getEscalations(int index) {
+		return escalations[index];
+	}
+
+	/**
+	 * Returns the fraction of cells the first detector could not decide.
+	 * 
+	 * @return escalation rate (0 to 1)
+	 */
+	public double getEscalationRate() {
+		long tried = hits[0] + escalations[0];
+		return (tried == 0) ? 0 : ((double) escalations[0] / tried);
+	}
+
+	/**
+	 * Returns the mean time per cell of all the detectors.
+	 * 
+	 * @return nanoseconds
+	 */
+	public long getMeanNanos() {
+		long cells = hits[0] + escalations[0];
+		long total = 0;
+		for (long n : nanos) {
+			total += n;
+		}
+		return (cells == 0) ? 0 : (total / cells);
+	}
+
+	/**
+	 * Clears the counters.
+	 */
+	public void reset() {
+		Arrays.fill(hits, 0);
+		Arrays.fill(escalations, 0);
+		Arrays.fill(nanos, 0);
+	}
+
+	/**
+	 * Returns a one line summary of the counters.
+	 * 
+	 * @return the summary
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Cascade:");
+		for (int i = 0; i < detectors.size(); i++) {
+			long tried = hits[i] + escalations[i];
+			sb.append(String.format(" %s hits=%d escalated=%d mean=%.1fms", detectors.get(i).getName(),
+					hits[i], escalations[i], (tried == 0) ? 0.0 : (nanos[i] / 1e6 / tried)));
+		}
+		sb.append(String.format(" cell mean=%.1fms", getMeanNanos() / 1e6));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,43 @@
+/**
+ * This is the interface for the detectors that determine the type of a cell in a game
+ * board image. Besides the type, a detector gives a confidence in its answer, so that a
+ * cheap detector can be tried first and a more capable (slower) detector used only when
+ * needed (see CellTypeCascade).
+ * 
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.opencv.core.Mat;
+
+public interface CellTypeDetector {
+
+	/**
+	 * Finds the type of a cell.
+	 * 
+	 * @param src the original cell image (color)
+	 * @return the type of cell (EMPTY, CROSS, NAUGHT, or NO_REG), confidence and cost
+	 */
+	public CellTypeResult detectCellType(Mat src);
+
+	/**
+	 * Returns the nominal cost of the detector, used to order detectors cheapest first.
+	 * 
+	 * @return typical time to detect a cell, in millisec
+	 */
+	public double getCost();
+
+	/**
+	 * Returns a short name for the detector, for reports.
+	 * 
+	 * @return the name
+	 */
+	public String getName();
+
+	/**
+	 * Sets the timer used to record how long the stages of detection take.
+	 * 
+	 * @param timer to use
+	 */
+	public void setTimer(AnalysisTimer timer);
+
+}
@@ -4,11 +4,14 @@
  * The overall approach is defined in the method findCellType.
  * 
  * THERE ARE LOTS OF TUNING PAMRAMETERS THAT MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ * They are in DetectorParameters, loaded from a profile at startup if one exists; see 
+ * DetectorAutotuner for finding good values.
  * 
  */
 package org.gaf.ttt.image_analysis;
 
 import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.gaf.ttt.image_analysis.DetectorParameters.Param;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
@@ -18,7 +21,7 @@ import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 
-public class CellTypeDetectorCircle {
+public class CellTypeDetectorCircle implements CellTypeDetector {
 
 //	private static final boolean DEBUG = true;
 	private static final boolean DEBUG = false;
@@ -27,6 +30,98 @@ public class CellTypeDetectorCircle {
 
 	// cell types and status
 	public static final int NO_REG = -100;
+	
+	// times the stages of detection
+	private AnalysisTimer timer = new AnalysisTimer();
+	
+	// the tuning parameters
+	private DetectorParameters params = DetectorParameters.loadProfile();
+	
+	// the disc examined when verifying a token; replaced if the radius changes
+	private CellStatistics verifyDisc = null;
+	
+	/**
+	 * Sets the tuning parameters.
+	 * 
+	 * @param params to use (not copied)
+	 */
+	public void setParameters(DetectorParameters params) {
+		this.params = params;
+	}
+	
+	/**
+	 * Returns the tuning parameters.
+	 * 
+	 * @return the parameters in use
+	 */
+	public DetectorParameters getParameters() {
+		return params;
+	}
+	
+	// find circles at half resolution, then refine at full resolution near each candidate
+	private boolean usePyramid = false;
+	private static final int refineMargin = 6; // radius slop, in pixels, when refining
+	private static final double refineArc = 0.25; // least fraction of the circle in the edges to refine
+	private byte[] refineBytes = new byte[0]; // full resolution edges, for refining
+	
+	/**
+	 * Selects multi-resolution (pyramid) circle finding for the registration circle and 
+	 * token disc. The circles are big enough to find at half resolution; each candidate
+	 * is then refined by fitting a circle to the full resolution edges in a thin annulus
+	 * around it. The registration circle is not refined, since only whether it is there
+	 * matters, so the full resolution edges are found only for a cell with a candidate
+	 * token disc; a cell decided at half resolution (no registration, or empty) needs 
+	 * none.
+	 * 
+	 * @param pyramid true to use the pyramid
+	 */
+	public void setPyramid(boolean pyramid) {
+		this.usePyramid = pyramid;
+	}
+
+	/**
+	 * Indicates if the pyramid is used.
+	 * 
+	 * @return true if the pyramid is used
+	 */
+	public boolean isPyramid() {
+		return usePyramid;
+	}
+
+	/**
+	 * Sets the timer used to record how long the stages of detection take.
+	 * 
+	 * @param timer to use
+	 */
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Finds the type of a cell. Finding the circles is trusted, so the confidence is 
+	 * complete, except when there is no registration circle.
+	 * 
+	 * @param src the original cell image (color)
+	 * @return type of cell, confidence and cost
+	 */
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long start = System.nanoTime();
+		int type = findCellType(src);
+		double confidence = (type == NO_REG) ? 0 : 1;
+		return new CellTypeResult(type, confidence, System.nanoTime() - start);
+	}
+
+	@Override
+	public double getCost() {
+		return 40; // three Hough transforms
+	}
+
+	@Override
+	public String getName() {
+		return "circle";
+	}
 
 
 	/**
@@ -39,26 +134,37 @@ public class CellTypeDetectorCircle {
 	 */
 	public Mat findEdges(Mat src) {
 
-		double lowThreshold = 50.0;
-		int ratio = 3;
-		int kernel_size = 3;
-
 		// create gray scale of original
 		Mat gray = new Mat();
 		Imgproc.cvtColor(src, gray, Imgproc.COLOR_BGR2GRAY);
 
+		return findEdgesGray(gray);
+	}
+
+	/**
+	 * Find the edges of circles in the gray scale rendering of a cell.
+	 * 
+	 * @param gray gray scale image of a cell
+	 * @return a gray scale with the edges
+	 */
+	public Mat findEdgesGray(Mat gray) {
+
+		double lowThreshold = params.get(Param.CANNY_LOW);
+		double ratio = params.get(Param.CANNY_RATIO);
+		int kernel_size = 3;
+
 		// find edges
 		Mat edges = new Mat();
 
 		// blur to reduce noise with a kernel 3x3
 		Imgproc.blur(gray, edges, new Size(3, 3));
-		if (DEBUG) Highgui.imwrite("blur1.png", gray);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur1.png", gray);
 
 		// use Canny detector to find the edges
 		Imgproc.Canny(edges, edges, lowThreshold, lowThreshold * ratio, kernel_size, true);
 
 		// output the debug image
-		if (DEBUG) Highgui.imwrite("temp.png", edges);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("temp.png", edges);
 
 		// return the edges
 		return edges;
@@ -76,8 +182,8 @@ public class CellTypeDetectorCircle {
 	public double[] findCircleReg(Mat edges) {
 
 		// min and max radius for registration circle
-		int radiusMin = 65;
-		int radiusMax = 85;
+		int radiusMin = params.getInt(Param.REG_RADIUS_MIN);
+		int radiusMax = params.getInt(Param.REG_RADIUS_MAX);
 
 		// create holder for blurred
 		Mat blurred = new Mat();
@@ -85,12 +191,14 @@ public class CellTypeDetectorCircle {
 		// blur
 		Imgproc.GaussianBlur( edges, blurred, new Size(9., 9.), 2, 2 );	
 		//		Imgproc.GaussianBlur( edges, blurred, new Size(5., 5.), 0, 0 );	
-		if (DEBUG) Highgui.imwrite("blur2.png", blurred);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur2.png", blurred);
 
 		// find circle(s)
 		Mat circles = new Mat();
 //		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, 1, 1, 200, 100, radiusMin, radiusMax);
-		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, 1.2, 20, 200, 100, radiusMin, radiusMax);
+		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.REG_DP), 
+				params.get(Param.REG_MIN_DIST), params.get(Param.REG_PARAM1), params.get(Param.REG_PARAM2),
+				radiusMin, radiusMax);
 
 		if (DEBUG) {
 			System.out.println("number of circles: " + circles.total());		
@@ -135,8 +243,8 @@ public class CellTypeDetectorCircle {
 	 */
 	public double[] findCircleDisc(Mat edges) {
 		// min and max radius for disc circle
-		int radiusMin = 40;
-		int radiusMax = 65;
+		int radiusMin = params.getInt(Param.DISC_RADIUS_MIN);
+		int radiusMax = params.getInt(Param.DISC_RADIUS_MAX);
 
 		// create holder for blurred
 		Mat blurred = new Mat();
@@ -144,11 +252,13 @@ public class CellTypeDetectorCircle {
 		// blur
 		Imgproc.GaussianBlur( edges, blurred, new Size(9., 9.), 2, 2 );	
 		//		Imgproc.GaussianBlur( edges, blurred, new Size(5., 5.), 0, 0 );	
-		if (DEBUG) Highgui.imwrite("blur2.png", blurred);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur2.png", blurred);
 
 		// find circles
 		Mat circles = new Mat();	
-		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, 1, 20, 100, 50, radiusMin, radiusMax);
+		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.DISC_DP), 
+				params.get(Param.DISC_MIN_DIST), params.get(Param.DISC_PARAM1), params.get(Param.DISC_PARAM2),
+				radiusMin, radiusMax);
 
 		if (DEBUG) {
 			System.out.println("number of circles: " + circles.total());
@@ -181,6 +291,190 @@ public class CellTypeDetectorCircle {
 		return circle;
 	}
 
+	/**
+	 * Finds the edges of circles in a half resolution rendering of the cell.
+	 * 
+	 * @param src color image of a cell
+	 * @return a gray scale with the edges, at half resolution
+	 */
+	public Mat findEdgesPyramid(Mat src) {
+		Mat small = new Mat();
+		Imgproc.pyrDown(src, small);
+		return findEdges(small);
+	}
+
+	/**
+	 * Finds the registration circle using the pyramid. Same as findCircleReg(), but 
+	 * from half resolution edges only; the circle is not refined, as only whether it
+	 * is there matters.
+	 * 
+	 * @param smallEdges from findEdgesPyramid()
+	 * @return a triple of the center (x,y) and radius of the circle (full resolution,
+	 * but only to within a pixel or two)
+	 */
+	public double[] findCircleRegPyramid(Mat smallEdges) {
+		return findCirclePyramid(smallEdges, null, params.getInt(Param.REG_RADIUS_MIN), 
+				params.getInt(Param.REG_RADIUS_MAX), params.get(Param.REG_DP), params.get(Param.REG_MIN_DIST),
+				params.get(Param.REG_PARAM1), params.get(Param.REG_PARAM2));
+	}
+
+	/**
+	 * Finds a token in the cell using the pyramid. Same as findCircleDisc(), but 
+	 * starting from half resolution edges.
+	 * 
+	 * @param smallEdges from findEdgesPyramid()
+	 * @param src the cell image (color); its full resolution edges are found only if
+	 * there is a candidate to refine
+	 * @return a triple of the center (x,y) and radius of the circle (full resolution)
+	 */
+	public double[] findCircleDiscPyramid(Mat smallEdges, Mat src) {
+		return findCirclePyramid(smallEdges, src, params.getInt(Param.DISC_RADIUS_MIN), 
+				params.getInt(Param.DISC_RADIUS_MAX), params.get(Param.DISC_DP), params.get(Param.DISC_MIN_DIST),
+				params.get(Param.DISC_PARAM1), params.get(Param.DISC_PARAM2));
+	}
+
+	/**
+	 * Finds a circle using the pyramid. The candidates come from a Hough transform of 
+	 * the half resolution edges, with the radius band, minimum distance and accumulator
+	 * threshold halved. If there are candidates and a source, its full resolution edges 
+	 * are found, and each candidate is refined against them; otherwise the candidates are
+	 * just scaled up. If more than one, the "average" is returned.
+	 * 
+	 * @param smallEdges from findEdgesPyramid()
+	 * @param src the cell image (color) for refinement; null to not refine
+	 * @param radiusMin min radius at full resolution
+	 * @param radiusMax max radius at full resolution
+	 * @param dp Hough inverse accumulator resolution
+	 * @param minDist Hough min distance between centers at full resolution
+	 * @param param1 Hough upper Canny threshold
+	 * @param param2 Hough accumulator threshold at full resolution
+	 * @return a triple of the center (x,y) and radius of the circle
+	 */
+	private double[] findCirclePyramid(Mat smallEdges, Mat src, int radiusMin, int radiusMax,
+			double dp, double minDist, double param1, double param2) {
+
+		// find candidates at half resolution
+		Mat blurred = new Mat();
+		Imgproc.GaussianBlur(smallEdges, blurred, new Size(5., 5.), 1, 1);
+		Mat circles = new Mat();
+		Imgproc.HoughCircles(blurred, circles, Imgproc.CV_HOUGH_GRADIENT, dp, minDist / 2, param1, 
+				param2 / 2, radiusMin / 2, (radiusMax + 1) / 2);
+		if (DEBUG) System.out.println("pyramid candidates: " + circles.total());
+		if (circles.total() == 0) return null;
+
+		// the full resolution edges, only now that there is something to refine
+		int cols = 0;
+		int rows = 0;
+		if (src != null) {
+			Mat fullEdges = findEdges(src);
+			cols = fullEdges.cols();
+			rows = fullEdges.rows();
+			if (refineBytes.length < cols * rows) refineBytes = new byte[cols * rows];
+			fullEdges.get(0, 0, refineBytes);
+			fullEdges.release();
+		}
+
+		// refine (or just scale up) each candidate, and average
+		double cx = 0;
+		double cy = 0;
+		double cr = 0;
+		for (int i = 0; i < circles.total(); i++) {
+			double[] coarse = circles.get(0, i);
+			double[] vector = {2 * coarse[0], 2 * coarse[1], 2 * coarse[2]};
+			if (src != null) {
+				vector = refineCircle(cols, rows, vector[0], vector[1], vector[2], radiusMin, radiusMax);
+			}
+			if (DEBUG) System.out.println("circle center: " + vector[0] + ", " + vector[1] + " radius: " + vector[2]);
+			cx += vector[0];
+			cy += vector[1];
+			cr += vector[2];
+		}
+		double[] average = {cx/circles.total(), cy/circles.total(), cr/circles.total()};
+		return average;
+	}
+
+	/**
+	 * Refines a candidate circle at full resolution by fitting a circle (least squares,
+	 * algebraic) to the edge pixels in a thin annulus, refineMargin wide either side of 
+	 * the candidate. That is one pass over the annulus, rather than another blur and Hough
+	 * transform. The edges must be in refineBytes.
+	 * 
+	 * @param cols of the edges
+	 * @param rows of the edges
+	 * @param x center of candidate
+	 * @param y center of candidate
+	 * @param r radius of candidate
+	 * @param radiusMin min radius allowed
+	 * @param radiusMax max radius allowed
+	 * @return the refined circle, or the candidate if it could not be refined
+	 */
+	private double[] refineCircle(int cols, int rows, double x, double y, double r, 
+			int radiusMin, int radiusMax) {
+		
+		double[] candidate = {x, y, r};
+
+		// the annulus, within the cell
+		double inner = Math.max(0, r - refineMargin);
+		double outer = r + refineMargin;
+		double inner2 = inner * inner;
+		double outer2 = outer * outer;
+		int x0 = Math.max(0, (int) Math.floor(x - outer));
+		int y0 = Math.max(0, (int) Math.floor(y - outer));
+		int x1 = Math.min(cols - 1, (int) Math.ceil(x + outer));
+		int y1 = Math.min(rows - 1, (int) Math.ceil(y + outer));
+
+		// sums for the fit, relative to the candidate center
+		int n = 0;
+		double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0, sxz = 0, syz = 0, sz = 0;
+		for (int py = y0; py <= y1; py++) {
+			double dy = py - y;
+			int row = py * cols;
+			for (int px = x0; px <= x1; px++) {
+				if (refineBytes[row + px] == 0) continue;
+				double dx = px - x;
+				double d2 = dx * dx + dy * dy;
+				if (d2 < inner2 || d2 > outer2) continue;
+				n++;
+				sx += dx;
+				sy += dy;
+				sxx += dx * dx;
+				syy += dy * dy;
+				sxy += dx * dy;
+				sxz += dx * d2;
+				syz += dy * d2;
+				sz += d2;
+			}
+		}
+		if (n < refineArc * 2 * Math.PI * r) {
+			if (DEBUG) System.out.println("pyramid refinement: too few edges (" + n + "); using candidate");
+			return candidate;
+		}
+
+		// solve for x^2 + y^2 + D x + E y + F = 0 (Cramer's rule)
+		double det = sxx * (syy * n - sy * sy) - sxy * (sxy * n - sy * sx) + sx * (sxy * sy - syy * sx);
+		if (Math.abs(det) < 1e-9) return candidate;
+		double bx = -sxz;
+		double by = -syz;
+		double bz = -sz;
+		double d = (bx * (syy * n - sy * sy) - sxy * (by * n - sy * bz) + sx * (by * sy - syy * bz)) / det;
+		double e = (sxx * (by * n - sy * bz) - bx * (sxy * n - sy * sx) + sx * (sxy * bz - by * sx)) / det;
+		double f = (sxx * (syy * bz - by * sy) - sxy * (sxy * bz - by * sx) + bx * (sxy * sy - syy * sx)) / det;
+		double ox = -d / 2;
+		double oy = -e / 2;
+		double r2 = ox * ox + oy * oy - f;
+		if (r2 <= 0) return candidate;
+		double radius = Math.sqrt(r2);
+
+		// no more than the slop of the candidate
+		if (Math.abs(ox) > refineMargin || Math.abs(oy) > refineMargin || 
+				Math.abs(radius - r) > refineMargin || radius < radiusMin || radius > radiusMax) {
+			if (DEBUG) System.out.println("pyramid refinement failed; using candidate");
+			return candidate;
+		}
+		double[] circle = {x + ox, y + oy, radius};
+		return circle;
+	}
+
 	/**
 	 * Finds a circle in the token in the cell, if that circle exists. 
 	 * 
@@ -193,11 +487,11 @@ public class CellTypeDetectorCircle {
 	 */
 	public double[] findCircleDiscCenter(Mat src, double[] circleToken) {
 		// min and max radius for circle inside the 0 token
-		int radiusMin = 10;
-		int radiusMax = 25;
+		int radiusMin = params.getInt(Param.INNER_RADIUS_MIN);
+		int radiusMax = params.getInt(Param.INNER_RADIUS_MAX);
 		
 		// border pixels to crop off from cell image 
-		int off = 17;
+		int off = params.getInt(Param.INNER_OFF);
 		
 		// create holder for debug
 		Mat draw2 = null;
@@ -221,7 +515,7 @@ public class CellTypeDetectorCircle {
 		Mat target = new Mat(src, roi);
 		
 		if (DEBUG) {
-			Highgui.imwrite("reallygoodStuff.png", target);
+			DebugArtifactSink.getSink().saveImage("reallygoodStuff.png", target);
 			System.out.println("\n****************Inner circle look\n");
 			draw2 = new Mat();		
 			target.copyTo(draw2);
@@ -230,11 +524,13 @@ public class CellTypeDetectorCircle {
 		// create gray scale of target
 		Mat gray = new Mat();
 		Imgproc.cvtColor(target, gray, Imgproc.COLOR_BGR2GRAY);
-		if (DEBUG) Highgui.imwrite("gray2.png", gray);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("gray2.png", gray);
 
 		// find circles in the grayed image
 		Mat circles = new Mat();
-		Imgproc.HoughCircles(gray, circles, Imgproc.CV_HOUGH_GRADIENT, 1.2, 20, 80, 25, radiusMin, radiusMax);
+		Imgproc.HoughCircles(gray, circles, Imgproc.CV_HOUGH_GRADIENT, params.get(Param.INNER_DP), 
+				params.get(Param.INNER_MIN_DIST), params.get(Param.INNER_PARAM1), params.get(Param.INNER_PARAM2),
+				radiusMin, radiusMax);
 		
 		if (DEBUG) System.out.println("HEY! number of circles: " + circles.total());
 					
@@ -250,7 +546,7 @@ public class CellTypeDetectorCircle {
 				cCenter = new Point(circle[0], circle[1]);
 				Core.circle(draw2, cCenter, 4, new Scalar(255, 255, 255), -1, 8, 0);
 				Core.circle(draw2, cCenter, (int) circle[2], new Scalar(255,0,0), 2, 8, 0 );
-				Highgui.imwrite("final2.png", draw2);
+				DebugArtifactSink.getSink().saveImage("final2.png", draw2);
 			}
 
 		} else { // then have to make a single circle
@@ -289,9 +585,22 @@ public class CellTypeDetectorCircle {
 	 * @return type of cell
 	 */
 	public int findCellType(Mat src) {
+		return findCellType(src, null);
+	}
+
+	/**
+	 * Find the type of token in a cell, if one exists, possibly with the edges already
+	 * found (e.g., cached by DetectorAutotuner).
+	 * 
+	 * @param src the original cell image (color)
+	 * @param cellEdges edges from findEdges() (findEdgesPyramid() for the pyramid), or null 
+	 * to find them
+	 * @return type of cell
+	 */
+	public int findCellType(Mat src, Mat cellEdges) {
 		
 		// start timing
-		long mStartC = System.currentTimeMillis();
+		long mStartC = timer.start();
 		
 		int rc = CellTypeDetectorCircle.NO_REG;
 		Mat draw = null; // for debug
@@ -302,11 +611,17 @@ public class CellTypeDetectorCircle {
 			src.copyTo(draw);
 		}
 
-		// find edges
-		Mat edges = findEdges(src);
+		// find edges (at half resolution for the pyramid; the full resolution edges for 
+		// refining the disc are found, if needed, with the disc)
+		long start = timer.start();
+		Mat edges = cellEdges;
+		if (edges == null) edges = usePyramid ? findEdgesPyramid(src) : findEdges(src);
+		timer.stop(AnalysisTimer.Stage.EDGES, start);
 
 		// find the registration circle
-		double[] circleReg = findCircleReg(edges);
+		start = timer.start();
+		double[] circleReg = usePyramid ? findCircleRegPyramid(edges) : findCircleReg(edges);
+		timer.stop(AnalysisTimer.Stage.HOUGH_REG, start);
 		if (circleReg == null) {
 			System.out.println("NO Registration circle! Abort!");
 			rc = CellTypeDetectorCircle.NO_REG;
@@ -323,7 +638,9 @@ public class CellTypeDetectorCircle {
 			}
 
 			// find boundary of token (disc), if exists
-			double[] circleDisc = findCircleDisc(edges);
+			start = timer.start();
+			double[] circleDisc = usePyramid ? findCircleDiscPyramid(edges, src) : findCircleDisc(edges);
+			timer.stop(AnalysisTimer.Stage.HOUGH_DISC, start);
 			if (circleDisc == null) { // no token
 				if (DEBUG) System.out.println("NO token circle!");
 				rc = TicTacToeGameBoard.EMPTY;
@@ -342,7 +659,9 @@ public class CellTypeDetectorCircle {
 				}
 				
 				// find the (red) circle that should be in a O
+				start = timer.start();
 				double [] innerCircle = findCircleDiscCenter(src, circleDisc);
+				timer.stop(AnalysisTimer.Stage.HOUGH_INNER, start);
 				if (innerCircle != null) { 
 					// have a red middle
 					if (DEBUG) {
@@ -358,20 +677,96 @@ public class CellTypeDetectorCircle {
 
 			// output the debug image
 			if (DEBUG) {
-				Highgui.imwrite("final.png", draw);
-				Highgui.imwrite("temp2.png", edges);
+				DebugArtifactSink.getSink().saveImage("final.png", draw);
+				DebugArtifactSink.getSink().saveImage("temp2.png", edges);
 			}
 
 		}   
 				
-		long mStopC = System.currentTimeMillis();
+		long mStopC = System.nanoTime();
 		if (DEBUGT)
 			System.out.println("Cell type time millisec: "
-					+ (mStopC - mStartC));
+					+ ((mStopC - mStartC) / 1000000));
 
 		return rc;
 	}
 
+	/**
+	 * Verifies, cheaply, that a cell holds the expected token. See verifyConfidence().
+	 * 
+	 * @param src the original cell image (color)
+	 * @param expected type of cell, CROSS or NAUGHT
+	 * @return true if the cell clearly holds the expected token
+	 */
+	public boolean verifyCellType(Mat src, int expected) {
+		return verifyConfidence(src, expected) >= CellTypeDetectorQuick.CONFIDENT;
+	}
+	
+	/**
+	 * Finds, cheaply, the confidence that a cell holds the expected token. Rather than 
+	 * finding circles, looks at the pixels in a disc in the middle of the cell, where a 
+	 * token must be if placed inside the registration circle. A token shows up as mostly 
+	 * dark pixels; a O token also has a good number of red pixels from its inner circle.
+	 * The levels are in the parameters (VERIFY_*).
+	 * 
+	 * The confidence grows with the fraction of token pixels, from none at VERIFY_TOKEN to
+	 * full at VERIFY_TOKEN_FULL, and with how clearly the red fraction is on the expected
+	 * side of VERIFY_RED. A weak answer should mean a full analysis.
+	 * 
+	 * Intended for cells that the logical game board says already hold a token.
+	 * 
+	 * @param src the original cell image (color)
+	 * @param expected type of cell, CROSS or NAUGHT
+	 * @return confidence from 0 (not the expected token) to 1 (certain)
+	 */
+	public double verifyConfidence(Mat src, int expected) {
+		
+		// radius of disc to examine; stays inside the token even if a bit off center
+		int radius = params.getInt(Param.VERIFY_RADIUS);
+		
+		// make sure disc fits in the cell
+		int cx = src.cols() / 2;
+		int cy = src.rows() / 2;
+		if (cx < radius || cy < radius) {
+			return 0;
+		}
+		
+		// the dark and red pixels of the disc
+		if (verifyDisc == null || verifyDisc.getExtent() != radius) {
+			verifyDisc = new CellStatistics(radius);
+		}
+		verifyDisc.setLevels(params.getInt(Param.VERIFY_DARK), 255, params.get(Param.VERIFY_RED_FACTOR));
+		verifyDisc.compute(src, new Point(cx, cy));
+		double red = verifyDisc.getRedFraction();
+		double token = verifyDisc.getDarkFraction() + red;
+		
+		// how much like a token, and how much like the expected token
+		double tokenLow = params.get(Param.VERIFY_TOKEN);
+		double tokenFull = params.get(Param.VERIFY_TOKEN_FULL);
+		double tokenScore = clamp((token - tokenLow) / Math.max(1e-6, tokenFull - tokenLow));
+		double redLevel = params.get(Param.VERIFY_RED);
+		double typeScore;
+		if (expected == TicTacToeGameBoard.NAUGHT) {
+			typeScore = clamp(2 * (red - redLevel) / redLevel); // full at 1.5 times the level
+		} else if (expected == TicTacToeGameBoard.CROSS) {
+			typeScore = clamp(2 * (redLevel - red) / redLevel); // full at half the level
+		} else {
+			typeScore = 0;
+		}
+		double confidence = Math.min(tokenScore, typeScore);
+		if (DEBUG) System.out.println("verify: token " + token + " red " + red + " expected " + expected + 
+				" confidence " + confidence);
+		
+		return confidence;
+	}
+	
+	/**
+	 * Limits a value to 0 to 1.
+	 */
+	private static double clamp(double value) {
+		return Math.max(0, Math.min(1, value));
+	}
+
 	public static void main(String[] args) {
 		System.out.println("Testing finding edges of circle, then circle");
 
@@ -10,7 +10,6 @@ package org.gaf.ttt.image_analysis;
 
 import org.gaf.ttt.common.TicTacToeGameBoard;
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
@@ -18,14 +17,58 @@ import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 
-public class CellTypeDetectorColor {
+public class CellTypeDetectorColor implements CellTypeDetector {
 
-	private static final boolean DEBUG = true;
-//	private static final boolean DEBUG = false;
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	private static final boolean DEBUGT = false;
 
 	// cell types and status
 	public static final int NO_REG = -100;
 
+	// factor to distinguish equality of bgr values
+	private static final double factor = 2.5; // e.g., if factor * b < r and factor * g < r have red (O)
+
+	// statistics of the circle at the center of a token; radius determined empirically
+	// from the geometry of captured images
+	private final CellStatistics centerStatistics = new CellStatistics(10);
+
+	// confidence of the last cell type found
+	private double confidence = 0;
+
+	// times the stages of detection
+	private AnalysisTimer timer = new AnalysisTimer();
+
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Finds the type of a cell. An empty cell (no token disc) is trusted; for a token, the 
+	 * confidence depends on how clearly the mean color at its center is red or not.
+	 * 
+	 * @param src the original cell image (color)
+	 * @return type of cell, confidence and cost
+	 */
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long start = System.nanoTime();
+		int type = findCellType(src);
+		return new CellTypeResult(type, confidence, System.nanoTime() - start);
+	}
+
+	@Override
+	public double getCost() {
+		return 25; // two Hough transforms
+	}
+
+	@Override
+	public String getName() {
+		return "color";
+	}
+
 
 	/**
 	 * Find the edges of circles in cell. The edges come from the registration circle, which
@@ -50,13 +93,13 @@ public class CellTypeDetectorColor {
 
 		// blur to reduce noise with a kernel 3x3
 		Imgproc.blur(gray, edges, new Size(3, 3));
-		if (DEBUG) Highgui.imwrite("blur1.png", gray);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur1.png", gray);
 
 		// use Canny detector to find the edges
 		Imgproc.Canny(edges, edges, lowThreshold, lowThreshold * ratio, kernel_size, true);
 
 		// output the debug image
-		if (DEBUG) Highgui.imwrite("temp.png", edges);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("temp.png", edges);
 
 		// return the edges
 		return edges;
@@ -83,7 +126,7 @@ public class CellTypeDetectorColor {
 		// blur
 		Imgproc.GaussianBlur( edges, blurred, new Size(9., 9.), 2, 2 );	
 		//		Imgproc.GaussianBlur( edges, blurred, new Size(5., 5.), 0, 0 );	
-		if (DEBUG) Highgui.imwrite("blur2.png", blurred);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur2.png", blurred);
 
 		// find circle(s)
 		Mat circles = new Mat();
@@ -141,7 +184,7 @@ public class CellTypeDetectorColor {
 		// blur
 		Imgproc.GaussianBlur( edges, blurred, new Size(9., 9.), 2, 2 );	
 		//		Imgproc.GaussianBlur( edges, blurred, new Size(5., 5.), 0, 0 );	
-		if (DEBUG) Highgui.imwrite("blur2.png", blurred);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("blur2.png", blurred);
 
 		// find circles
 		Mat circles = new Mat();	
@@ -186,22 +229,11 @@ public class CellTypeDetectorColor {
 	 * @return the mean color (a triplet) of a circle at the center of a token
 	 */
 	public Scalar findCellMean(Mat src, Point center) {
-		
-		int radius = 10; // determined empirically from the geometry of captured images
 
-		// create Mat for mask; same size as input
-		Mat mask = Mat.zeros(src.rows(), src.cols(), CvType.CV_8UC1);
-
-		// draw circle in mask
-		Core.circle(mask, center, radius, new Scalar(255), -1);
-		if (DEBUG) {
-			System.out.println("mask-" + mask);
-			Highgui.imwrite("mask.png", mask);
-		}
-
-		// get the mean
-		Scalar mean = Core.mean(src, mask);
-		if (DEBUG) System.out.println("mean: " + mean);
+		// get the mean of a circle at the center; no mask needed
+		centerStatistics.compute(src, center);
+		Scalar mean = centerStatistics.getMean();
+		if (DEBUG) System.out.println("mean: " + mean + " pixels: " + centerStatistics.getCount());
 
 		return mean;
 	}
@@ -225,11 +257,8 @@ public class CellTypeDetectorColor {
 		// start timing
 		long mStartC = System.currentTimeMillis();
 
-		
-		// factor to distinguish equality of bgr values
-		double factor = 2.5; // e.g., if b < factor * r and g < factor * r have red (O)
-
 		int rc = 99;
+		confidence = 0;
 		Mat draw = null; // for debug
 
 		if (DEBUG) {
@@ -239,10 +268,14 @@ public class CellTypeDetectorColor {
 		}
 
 		// find edges
+		long start = timer.start();
 		Mat edges = findEdges(src);
+		timer.stop(AnalysisTimer.Stage.EDGES, start);
 
 		// find the registration circle
+		start = timer.start();
 		double[] circleReg = findCircleReg(edges);
+		timer.stop(AnalysisTimer.Stage.HOUGH_REG, start);
 		if (circleReg == null) {
 			System.out.println("NO Registration circle! Abort!");
 			rc = CellTypeDetectorColor.NO_REG;
@@ -259,10 +292,13 @@ public class CellTypeDetectorColor {
 			}
 
 			// find inner circle (disc)
+			start = timer.start();
 			double[] circleDisc = findCircleDisc(edges);
+			timer.stop(AnalysisTimer.Stage.HOUGH_DISC, start);
 			if (circleDisc == null) {
 				if (DEBUG) System.out.println("NO Disc circle!");
 				rc = TicTacToeGameBoard.EMPTY;
+				confidence = 0.9;
 
 			} else { // have a token
 				// set the center of the disc
@@ -279,6 +315,11 @@ public class CellTypeDetectorColor {
 				// find the cell mean for token (for either X or O)
 				Scalar mean = findCellMean(src, cCenter);
 				double [] bgra = mean.val;
+				
+				// the further red is from the decision level, the more confident
+				double level = factor * Math.max(bgra[0], bgra[1]);
+				double margin = Math.abs(bgra[2] - level) / Math.max(1, Math.max(bgra[2], level));
+				confidence = 0.5 + 0.5 * margin;
 				if ((factor * bgra[0]) < bgra[2] && (factor * bgra[1]) < bgra[2]) { 
 					// have a red middle
 					if (DEBUG) System.out.println("Think found NAUGHT");
@@ -292,15 +333,15 @@ public class CellTypeDetectorColor {
 
 			// output the debug image
 			if (DEBUG) {
-				Highgui.imwrite("final.png", draw);
-				Highgui.imwrite("temp2.png", edges);
+				DebugArtifactSink.getSink().saveImage("final.png", draw);
+				DebugArtifactSink.getSink().saveImage("temp2.png", edges);
 			}
 
 		}   
 		
 		
 		long mStopC = System.currentTimeMillis();
-//		if (DEBUGT)
+		if (DEBUGT)
 			System.out.println("Cell type time millisec: "
 					+ (mStopC - mStartC));
 
@@ -0,0 +1,252 @@
+/**
+ * This class determines the type of cell in game board image with a small learned
+ * classifier, rather than by finding circles: multinomial logistic regression over the
+ * pixels of the cell shrunk to 32x32. The weights are learned offline from labelled
+ * scenes by CellClassifierTrainer.
+ *
+ * The features are the color levels of the shrunk cell, less their mean (so a change in
+ * lighting matters less), scaled. Inference is plain Java over arrays allocated once,
+ * so finding the type of a cell allocates nothing (detectCellType() allocates just the
+ * result).
+ *
+ * The confidence is the probability of the most likely type. There is no NO_REG; a cell
+ * the classifier is not sure of should go on to the circle detector in a cascade.
+ *
+ * The detector loads the model in the current directory (MODEL) with loadModel().
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class CellTypeDetectorLearned implements CellTypeDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the model file in the current directory
+	public static final String MODEL = "cell-classifier.model";
+	private static final int magic = 0x54545443; // "TTTC"
+
+	// the shrunk cell
+	public static final int SIDE = 32;
+	private static final Size size = new Size(SIDE, SIDE);
+	public static final int FEATURES = SIDE * SIDE * 3;
+	private static final double scale = 64.0; // of a feature, after the mean is removed
+
+	// the types, in order of the classes of the model
+	public static final int[] TYPES = {TicTacToeGameBoard.EMPTY, TicTacToeGameBoard.CROSS,
+			TicTacToeGameBoard.NAUGHT};
+	public static final int CLASSES = TYPES.length;
+
+	// the model: a weight for each feature, and a bias, for each class
+	private final double[][] weights;
+
+	// allocated once, for inference
+	private final Mat small = new Mat(SIDE, SIDE, CvType.CV_8UC3);
+	private final byte[] pixels = new byte[FEATURES];
+	private final double[] features = new double[FEATURES];
+	private final double[] scores = new double[CLASSES];
+
+	// confidence of the last classification
+	private double confidence = 0;
+
+	// times the detection
+	private AnalysisTimer timer = new AnalysisTimer();
+
+	/**
+	 * Creates a detector with an empty model; see load().
+	 */
+	public CellTypeDetectorLearned() {
+		weights = new double[CLASSES][FEATURES + 1];
+	}
+
+	/**
+	 * Creates a detector that shares the model of another, e.g., for another thread. The
+	 * model is not copied, so it must not be loaded or trained while shared.
+	 *
+	 * @param other detector with the model
+	 */
+	public CellTypeDetectorLearned(CellTypeDetectorLearned other) {
+		weights = other.weights;
+	}
+
+	/**
+	 * Finds the type of a cell. Use getConfidence() to find out if it can be trusted.
+	 *
+	 * @param src the original cell image (color)
+	 * @return type of cell
+	 */
+	public int findCellType(Mat src) {
+		long start = timer.start();
+		extractFeatures(src, features);
+		int best = score(features, scores);
+		confidence = scores[best];
+		timer.stop(AnalysisTimer.Stage.LEARNED, start);
+		if (DEBUG) System.out.println("Learned: type " + TYPES[best] + " confidence " + confidence);
+		return TYPES[best];
+	}
+
+	/**
+	 * Finds the features of a cell.
+	 *
+	 * @param src the original cell image (color)
+	 * @param x to hold the features (FEATURES long)
+	 */
+	void extractFeatures(Mat src, double[] x) {
+		Imgproc.resize(src, small, size, 0, 0, Imgproc.INTER_AREA);
+		small.get(0, 0, pixels);
+		double mean = 0;
+		for (int i = 0; i < FEATURES; i++) {
+			mean += pixels[i] & 0xff;
+		}
+		mean /= FEATURES;
+		for (int i = 0; i < FEATURES; i++) {
+			x[i] = ((pixels[i] & 0xff) - mean) / scale;
+		}
+	}
+
+	/**
+	 * Finds the probability of each class for a set of features.
+	 *
+	 * @param x the features
+	 * @param p to hold the probability of each class
+	 * @return the most likely class
+	 */
+	int score(double[] x, double[] p) {
+		int best = 0;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < CLASSES; c++) {
+			double[] w = weights[c];
+			double z = w[FEATURES]; // bias
+			for (int i = 0; i < FEATURES; i++) {
+				z += w[i] * x[i];
+			}
+			p[c] = z;
+			if (z > max) {
+				max = z;
+				best = c;
+			}
+		}
+
+		// softmax
+		double sum = 0;
+		for (int c = 0; c < CLASSES; c++) {
+			p[c] = Math.exp(p[c] - max);
+			sum += p[c];
+		}
+		for (int c = 0; c < CLASSES; c++) {
+			p[c] /= sum;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the weights of the model, for training.
+	 *
+	 * @return the weights (not a copy); for each class, the feature weights then the bias
+	 */
+	double[][] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Returns the confidence of the last classification.
+	 *
+	 * @return probability of the type found
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long start = System.nanoTime();
+		int type = findCellType(src);
+		return new CellTypeResult(type, confidence, System.nanoTime() - start);
+	}
+
+	@Override
+	public double getCost() {
+		return 5; // a shrink, and a few thousand multiplies per class
+	}
+
+	@Override
+	public String getName() {
+		return "learned";
+	}
+
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Saves the model.
+	 *
+	 * @param file to write
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+			out.writeInt(magic);
+			out.writeInt(SIDE);
+			out.writeInt(CLASSES);
+			for (double[] w : weights) {
+				for (double v : w) {
+					out.writeDouble(v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads a model.
+	 *
+	 * @param file to read
+	 * @throws IOException if the file cannot be read, or is not a model of this shape
+	 */
+	public void load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if (in.readInt() != magic || in.readInt() != SIDE || in.readInt() != CLASSES) {
+				throw new IOException("Not a cell classifier model: " + file);
+			}
+			for (double[] w : weights) {
+				for (int i = 0; i < w.length; i++) {
+					w[i] = in.readDouble();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a detector with the model in the current directory.
+	 *
+	 * @return the detector; null if there is no model (or it is bad)
+	 */
+	public static CellTypeDetectorLearned loadModel() {
+		Path file = FileSystems.getDefault().getPath(MODEL);
+		if (!Files.exists(file)) return null;
+		CellTypeDetectorLearned detector = new CellTypeDetectorLearned();
+		try {
+			detector.load(file);
+			System.out.println("CellTypeDetectorLearned: loaded " + file.toAbsolutePath());
+			return detector;
+		} catch (IOException ex) {
+			System.out.println("CellTypeDetectorLearned: bad model: " + ex.getMessage());
+			return null;
+		}
+	}
+
+}
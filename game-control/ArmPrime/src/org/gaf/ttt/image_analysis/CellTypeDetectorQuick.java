@@ -0,0 +1,227 @@
+/**
+ * This class does a quick determination of the type of cell in game board image, using
+ * simple statistics of the pixels rather than finding circles. It is intended as the first
+ * tier of classification. Most cells are clearly empty or clearly hold a token; only cells
+ * that are not clear need to go to CellTypeDetectorCircle.
+ *
+ * The registration circle is assumed to be centered in the cell, so a token placed in the
+ * registration circle covers the middle of the cell. The statistics come from the pixels
+ * in a disc in the middle of the cell, smaller than a token so it still fits if the token
+ * is a bit off center, and from a ring where the registration circle should be.
+ *
+ * Along with the cell type, a confidence (0 to 1) is produced. A low confidence means the
+ * cell should be examined by a more capable detector.
+ *
+ * THERE ARE LOTS OF TUNING PAMRAMETERS THAT MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+public class CellTypeDetectorQuick implements CellTypeDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// confidence at or above which the result can be trusted
+	public static final double CONFIDENT = 0.9;
+
+	// radius of the disc examined for a token; a token has a radius of 40-65
+	private static final int discRadius = 40;
+
+	// inner and outer radius of the ring examined for the registration circle (65-85)
+	private static final int ringInner = 68;
+	private static final int ringOuter = 82;
+
+	// pixel classification
+	private static final int darkLevel = 100; // gray below this is dark (part of token)
+	private static final int lightLevel = 150; // gray above this is light (board)
+	private static final double redFactor = 2.5; // red if factor * b < r and factor * g < r
+
+	// fractions for decisions
+	private static final double emptyLight = 0.9; // light fraction of an empty disc
+	private static final double emptySpread = 25.0; // max std deviation of an empty disc
+	private static final double tokenFraction = 0.85; // dark + red fraction of a token
+	private static final double naughtRed = 0.12; // red fraction of a sure O
+	private static final double crossRed = 0.03; // red fraction above which X not sure
+	private static final double ringDark = 0.15; // dark fraction of ring with reg circle
+
+	// statistics of the disc and the ring
+	private final CellStatistics disc = new CellStatistics(discRadius);
+	private final CellStatistics ring = new CellStatistics(ringInner, ringOuter);
+
+	// confidence of the last classification
+	private double confidence = 0;
+
+	// times the detection
+	private AnalysisTimer timer = new AnalysisTimer();
+
+	// statistics of the last classification (mostly for debug)
+	private double mean = 0;
+	private double stdDev = 0;
+	private double[] histogram = new double[3]; // fraction light, dark, red in disc
+
+	/**
+	 * Creates a quick detector.
+	 */
+	public CellTypeDetectorQuick() {
+		disc.setLevels(darkLevel, lightLevel, redFactor);
+		ring.setLevels(darkLevel, lightLevel, redFactor);
+	}
+
+	/**
+	 * Finds the type of a cell from the statistics of its pixels. Use getConfidence()
+	 * to find out if the type can be trusted.
+	 *
+	 * Process:
+	 * 	- in the middle disc, find the mean and variance of the brightness, and a simple
+	 * 		color histogram (light, dark, red pixels)
+	 * 	- in the ring, find the fraction of dark pixels (the registration circle)
+	 * 	- with no registration circle, no confidence
+	 * 	- mostly light and little spread means EMPTY
+	 * 	- mostly dark or red means a token; enough red is O, hardly any is X
+	 *
+	 * @param src the original cell image (color)
+	 * @return type of cell
+	 */
+	public int findCellType(Mat src) {
+
+		long start = timer.start();
+		try {
+			return classify(src);
+		} finally {
+			timer.stop(AnalysisTimer.Stage.QUICK, start);
+		}
+	}
+
+	/**
+	 * Finds the type of a cell from the statistics of its pixels.
+	 * 
+	 * @param src the original cell image (color)
+	 * @return type of cell, confidence and cost
+	 */
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long start = System.nanoTime();
+		int type = findCellType(src);
+		return new CellTypeResult(type, confidence, System.nanoTime() - start);
+	}
+
+	@Override
+	public double getCost() {
+		return 1; // one pass over the middle of the cell
+	}
+
+	@Override
+	public String getName() {
+		return "quick";
+	}
+
+	/**
+	 * Does the work for findCellType().
+	 *
+	 * @param src the original cell image (color)
+	 * @return type of cell
+	 */
+	private int classify(Mat src) {
+
+		int rc = TicTacToeGameBoard.EMPTY;
+		confidence = 0;
+
+		// the middle of the cell
+		int cx = src.cols() / 2;
+		int cy = src.rows() / 2;
+		if (cx <= ringOuter || cy <= ringOuter) { // cell too small to be sure of anything
+			if (DEBUG) System.out.println("Cell too small: " + src);
+			return rc;
+		}
+
+		// gather the statistics
+		Point center = new Point(cx, cy);
+		disc.compute(src, center);
+		ring.compute(src, center);
+		mean = disc.getGrayMean();
+		stdDev = Math.sqrt(disc.getGrayVariance());
+		histogram[0] = disc.getLightFraction();
+		histogram[1] = disc.getDarkFraction();
+		histogram[2] = disc.getRedFraction();
+		double ringFraction = ring.getDarkFraction();
+		if (DEBUG) {
+			System.out.println("mean: " + mean + " std dev: " + stdDev + " light: " + histogram[0] +
+					" dark: " + histogram[1] + " red: " + histogram[2] + " ring: " + ringFraction);
+		}
+
+		// without registration circle, cannot trust anything
+		if (ringFraction < ringDark) {
+			if (DEBUG) System.out.println("No sign of registration circle");
+			return rc;
+		}
+
+		// decide
+		double token = histogram[1] + histogram[2];
+		if (histogram[0] >= emptyLight && stdDev <= emptySpread) { // clearly empty
+			rc = TicTacToeGameBoard.EMPTY;
+			confidence = histogram[0];
+		} else if (token >= tokenFraction) { // clearly a token
+			if (histogram[2] >= naughtRed) {
+				rc = TicTacToeGameBoard.NAUGHT;
+				confidence = token;
+			} else if (histogram[2] <= crossRed) {
+				rc = TicTacToeGameBoard.CROSS;
+				confidence = token;
+			} else { // token, but not sure which
+				rc = (histogram[2] >= (naughtRed + crossRed) / 2) ?
+						TicTacToeGameBoard.NAUGHT : TicTacToeGameBoard.CROSS;
+				confidence = 0.5;
+			}
+		} else { // something in between
+			rc = (token > histogram[0]) ? TicTacToeGameBoard.CROSS : TicTacToeGameBoard.EMPTY;
+			confidence = Math.max(token, histogram[0]) * 0.5;
+		}
+		if (DEBUG) System.out.println("Quick type: " + rc + " confidence: " + confidence);
+
+		return rc;
+	}
+
+	/**
+	 * Sets the timer used to record how long detection takes.
+	 *
+	 * @param timer to use
+	 */
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Returns the confidence in the last classification.
+	 *
+	 * @return confidence from 0 (none) to 1 (certain)
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Indicates if the last classification can be trusted.
+	 *
+	 * @return true if confident
+	 */
+	public boolean isConfident() {
+		return confidence >= CONFIDENT;
+	}
+
+	/**
+	 * Returns the statistics of the last classification.
+	 *
+	 * @return mean and standard deviation of brightness, fraction light, dark, red pixels
+	 */
+	public double[] getStatistics() {
+		double[] stats = {mean, stdDev, histogram[0], histogram[1], histogram[2]};
+		return stats;
+	}
+
+}
@@ -0,0 +1,214 @@
+/**
+ * This class determines the type of cell in game board image by comparing the cell with
+ * templates of an empty cell, a cell with an X and a cell with an O, taken from the cells
+ * of earlier images in the same session. So the templates are of the same board, tokens
+ * and lighting as the cell.
+ *
+ * The cell is shrunk to a small, fixed size; the template is the middle of the shrunk
+ * cell, a bit smaller, so the comparison (normalized cross correlation) can allow for a
+ * token a bit off center. That is one small correlation per type, rather than Canny and
+ * several Hough transforms.
+ *
+ * The templates are learned from the cells of each good analysis (see learn()); the first
+ * image of a session, with an empty board, gives the template of an empty cell, and the
+ * X and O templates come as tokens are played. Each template is a running average, so it
+ * follows a slow drift in the lighting.
+ *
+ * The confidence depends on how much better the best template matches than the next best.
+ * Until all templates are known there is no confidence, so the cell should go on to the
+ * circle detector in a cascade. There is no NO_REG.
+ *
+ * THE LEVELS MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class CellTypeDetectorTemplate implements CellTypeDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the shrunk cell, and the template from its middle
+	public static final int SIDE = 32;
+	private static final Size size = new Size(SIDE, SIDE);
+	private static final int margin = 3; // template is SIDE - 2 * margin square
+
+	// the types, in order of the templates
+	public static final int[] TYPES = {TicTacToeGameBoard.EMPTY, TicTacToeGameBoard.CROSS,
+			TicTacToeGameBoard.NAUGHT};
+
+	// learning
+	private static final double refresh = 0.25; // weight of a new cell in a template
+
+	// decisions
+	private static final double minScore = 0.5; // best correlation for any confidence
+	private static final double fullMargin = 0.25; // lead over the next best for full confidence
+
+	// the templates: a running average of the shrunk cells of each type
+	private final Mat[] average = new Mat[TYPES.length];
+	private final Mat[] template = new Mat[TYPES.length]; // middle of each average
+	private final long[] learned = new long[TYPES.length];
+
+	// allocated once
+	private final Mat small = new Mat();
+	private final Mat smallF = new Mat();
+	private final Mat match = new Mat();
+	private final double[] scores = new double[TYPES.length];
+
+	// confidence of the last classification
+	private double confidence = 0;
+
+	// times the detection
+	private AnalysisTimer timer = new AnalysisTimer();
+
+	/**
+	 * Finds the type of a cell. Use getConfidence() to find out if it can be trusted.
+	 *
+	 * @param src the original cell image (color)
+	 * @return type of cell; EMPTY if there are no templates
+	 */
+	public int findCellType(Mat src) {
+		long start = timer.start();
+		shrink(src);
+
+		// correlate with each template
+		int best = -1;
+		int known = 0;
+		for (int t = 0; t < TYPES.length; t++) {
+			scores[t] = -1;
+			if (template[t] == null) continue;
+			known++;
+			Imgproc.matchTemplate(smallF, template[t], match, Imgproc.TM_CCOEFF_NORMED);
+			scores[t] = Core.minMaxLoc(match).maxVal;
+			if (best < 0 || scores[t] > scores[best]) best = t;
+		}
+
+		// confidence from the lead over the next best
+		confidence = 0;
+		if (best < 0) {
+			best = 0;
+		} else if (known == TYPES.length && scores[best] >= minScore) {
+			double next = -1;
+			for (int t = 0; t < TYPES.length; t++) {
+				if (t != best) next = Math.max(next, scores[t]);
+			}
+			confidence = Math.min(1.0, (scores[best] - next) / fullMargin);
+		}
+		timer.stop(AnalysisTimer.Stage.TEMPLATE, start);
+		if (DEBUG) System.out.println("Template: scores " + scores[0] + " " + scores[1] + " " + scores[2] +
+				" type " + TYPES[best] + " confidence " + confidence);
+		return TYPES[best];
+	}
+
+	/**
+	 * Learns from a cell of known type: the first cell of a type is its template; later
+	 * cells are blended into the template.
+	 *
+	 * @param src the original cell image (color)
+	 * @param type of the cell; anything but EMPTY, CROSS and NAUGHT is ignored
+	 */
+	public void learn(Mat src, int type) {
+		int t = indexOf(type);
+		if (t < 0) return;
+		shrink(src);
+		if (average[t] == null) {
+			average[t] = new Mat();
+			smallF.copyTo(average[t]);
+			template[t] = average[t].submat(margin, SIDE - margin, margin, SIDE - margin);
+		} else {
+			Core.addWeighted(smallF, refresh, average[t], 1 - refresh, 0, average[t]);
+		}
+		learned[t]++;
+	}
+
+	/**
+	 * Forgets the templates, e.g., for a new session.
+	 */
+	public void reset() {
+		for (int t = 0; t < TYPES.length; t++) {
+			if (average[t] != null) average[t].release();
+			average[t] = null;
+			template[t] = null;
+			learned[t] = 0;
+		}
+	}
+
+	/**
+	 * Indicates if there is a template for every type.
+	 *
+	 * @return true if all templates are known
+	 */
+	public boolean isReady() {
+		for (Mat t : template) {
+			if (t == null) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Shrinks a cell into smallF.
+	 *
+	 * @param src the original cell image (color)
+	 */
+	private void shrink(Mat src) {
+		Imgproc.resize(src, small, size, 0, 0, Imgproc.INTER_AREA);
+		small.convertTo(smallF, CvType.CV_32FC3);
+	}
+
+	/**
+	 * Returns the index of the template for a type.
+	 *
+	 * @param type of cell
+	 * @return index; -1 if no template for the type
+	 */
+	private static int indexOf(int type) {
+		for (int t = 0; t < TYPES.length; t++) {
+			if (TYPES[t] == type) return t;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the confidence of the last classification.
+	 *
+	 * @return from 0 (none) to 1 (certain)
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public CellTypeResult detectCellType(Mat src) {
+		long start = System.nanoTime();
+		int type = findCellType(src);
+		return new CellTypeResult(type, confidence, System.nanoTime() - start);
+	}
+
+	@Override
+	public double getCost() {
+		return 2; // a shrink, and three small correlations
+	}
+
+	@Override
+	public String getName() {
+		return "template";
+	}
+
+	@Override
+	public void setTimer(AnalysisTimer timer) {
+		this.timer = timer;
+	}
+
+	@Override
+	public String toString() {
+		return "Templates learned: empty=" + learned[0] + " X=" + learned[1] + " O=" + learned[2];
+	}
+
+}
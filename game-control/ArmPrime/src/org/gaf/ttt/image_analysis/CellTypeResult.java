@@ -0,0 +1,25 @@
+/**
+ * This class holds the result of a cell type detector: the type of cell, the confidence
+ * of the detector in the type, and what it cost to find it.
+ * 
+ */
+package org.gaf.ttt.image_analysis;
+
+public class CellTypeResult {
+
+	public final int type; // EMPTY, CROSS, NAUGHT, or NO_REG
+	public final double confidence; // 0 (none) to 1 (certain)
+	public final long nanos; // time taken to find the type
+
+	public CellTypeResult(int type, double confidence, long nanos) {
+		this.type = type;
+		this.confidence = confidence;
+		this.nanos = nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("type: %d confidence: %.2f millisec: %.2f", type, confidence, nanos / 1e6);
+	}
+
+}
@@ -0,0 +1,230 @@
+/**
+ * This class writes debug artifacts (images of the stages of analysis, and scenes) in the
+ * background, so that debug capture does not add to the time of a turn.
+ *
+ * Artifacts go into a bounded queue, and a single writer thread writes them to files. If
+ * the queue is full, the artifact is dropped (and counted) rather than making the caller
+ * wait. Images are copied when queued, since the caller may change them afterward; scenes
+ * are saved as the encoded bytes received from the camera, so never re-encoded.
+ *
+ * Debug images can be sampled, so that only the images from 1 in N turns are kept; a turn
+ * starts with newTurn(). Error images and scenes are always kept (unless dropped).
+ *
+ * There is a single sink, shared by all analyzers and detectors.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+
+public class DebugArtifactSink implements Runnable {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// the single sink
+	private static final DebugArtifactSink sink = new DebugArtifactSink();
+
+	// size of the queue
+	private static final int capacity = 16;
+
+	/**
+	 * An artifact waiting to be written; either an image or bytes.
+	 */
+	private static class Artifact {
+		final String name;
+		final Mat image;
+		final byte[] bytes;
+
+		Artifact(String name, Mat image, byte[] bytes) {
+			this.name = name;
+			this.image = image;
+			this.bytes = bytes;
+		}
+	}
+
+	private final BlockingQueue<Artifact> queue = new ArrayBlockingQueue<Artifact>(capacity);
+	private Thread writer = null;
+
+	// where artifacts are written
+	private volatile Path dir = FileSystems.getDefault().getPath(".");
+
+	// sampling of debug images
+	private volatile int sampleEvery = 1; // keep the images of 1 in this many turns
+	private volatile boolean sampled = true; // keep the images of the current turn
+	private final AtomicLong turns = new AtomicLong();
+
+	// counters
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * Returns the sink.
+	 *
+	 * @return the sink
+	 */
+	public static DebugArtifactSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Starts a new turn, and decides if its debug images are kept.
+	 */
+	public void newTurn() {
+		sampled = (turns.incrementAndGet() % sampleEvery) == 0;
+	}
+
+	/**
+	 * Saves a debug image, if the current turn is sampled.
+	 *
+	 * @param name of the file
+	 * @param image to save (copied)
+	 * @return true if queued
+	 */
+	public boolean saveImage(String name, Mat image) {
+		if (!sampled) {
+			skipped.incrementAndGet();
+			return false;
+		}
+		return offer(new Artifact(name, image.clone(), null));
+	}
+
+	/**
+	 * Saves an image showing an error, whether or not the current turn is sampled.
+	 *
+	 * @param name of the file
+	 * @param image to save (copied)
+	 * @return true if queued
+	 */
+	public boolean saveErrorImage(String name, Mat image) {
+		return offer(new Artifact(name, image.clone(), null));
+	}
+
+	/**
+	 * Saves bytes, e.g., an encoded scene, whether or not the current turn is sampled.
+	 *
+	 * @param name of the file
+	 * @param bytes to save (copied)
+	 * @return true if queued
+	 */
+	public boolean saveBytes(String name, byte[] bytes) {
+		return saveBytes(name, bytes, bytes.length);
+	}
+
+	/**
+	 * Saves the start of an array of bytes, e.g., an encoded scene in a reused buffer.
+	 *
+	 * @param name of the file
+	 * @param bytes holding the bytes to save (copied)
+	 * @param length of the bytes to save
+	 * @return true if queued
+	 */
+	public boolean saveBytes(String name, byte[] bytes, int length) {
+		return offer(new Artifact(name, null, Arrays.copyOf(bytes, length)));
+	}
+
+	/**
+	 * Puts an artifact in the queue, if there is room.
+	 *
+	 * @param artifact to write
+	 * @return true if queued, false if dropped
+	 */
+	private boolean offer(Artifact artifact) {
+		startWriter();
+		if (!queue.offer(artifact)) {
+			dropped.incrementAndGet();
+			if (DEBUG) System.out.println("DebugArtifactSink: dropped " + artifact.name);
+			return false;
+		}
+		queued.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Starts the writer thread, if not already started.
+	 */
+	private synchronized void startWriter() {
+		if (writer == null) {
+			writer = new Thread(this, "DebugArtifactSink");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Writes artifacts from the queue, forever.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Artifact artifact;
+			try {
+				artifact = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			Path file = dir.resolve(artifact.name);
+			try {
+				if (artifact.image != null) {
+					Highgui.imwrite(file.toString(), artifact.image);
+					artifact.image.release();
+				} else {
+					Files.write(file, artifact.bytes);
+				}
+				written.incrementAndGet();
+				if (DEBUG) System.out.println("DebugArtifactSink: wrote " + file);
+			} catch (IOException | RuntimeException ex) {
+				System.out.println("DebugArtifactSink: could not write " + file + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Sets the sampling of debug images.
+	 *
+	 * @param every keep the debug images of 1 in this many turns (1 keeps all)
+	 */
+	public void setSampling(int every) {
+		this.sampleEvery = Math.max(1, every);
+	}
+
+	/**
+	 * Sets the directory where artifacts are written.
+	 *
+	 * @param dir the directory
+	 */
+	public void setDirectory(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the counters.
+	 *
+	 * @return counts of artifacts queued, written, dropped (queue full) and skipped (not
+	 * sampled)
+	 */
+	public long[] getCounts() {
+		long[] counts = {queued.get(), written.get(), dropped.get(), skipped.get()};
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return "Debug artifacts queued: " + queued.get() + " written: " + written.get() +
+				" dropped: " + dropped.get() + " skipped: " + skipped.get();
+	}
+
+}
@@ -0,0 +1,298 @@
+/**
+ * This class finds good tuning parameters for CellTypeDetectorCircle by trying many sets
+ * of parameters over a labelled scene corpus (see SceneCorpus), using all cores. The best
+ * set is saved as a profile (see DetectorParameters) that the detector loads at startup.
+ *
+ * Sets of parameters are compared by accuracy first; if the accuracy is the same, the
+ * faster set wins (it must be faster by a margin, to avoid chasing timing noise).
+ *
+ * A full grid of all the parameters would take forever, so the search is coordinate
+ * descent: starting from the current profile, each parameter in turn is set to each of
+ * its candidate values, with the rest fixed, and the best value kept. Passes over all
+ * parameters are repeated until nothing improves.
+ *
+ * To make trials cheap, the scenes are decoded and cut into cells just once, and the gray
+ * scale rendering of each cell is kept. The edges of each cell are kept for the Canny
+ * parameters of the latest trial, and released when a trial with other Canny parameters
+ * comes along; since the search changes one parameter at a time, only the Hough transforms
+ * are done for most trials. Because of that, the latency compared is that of the Hough
+ * transforms. The pyramid path is not tuned.
+ *
+ * Usage: DetectorAutotuner corpusDir [threads] [profile]
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.awt.image.ImagingOpException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gaf.ttt.image_analysis.DetectorParameters.Param;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+public class DetectorAutotuner {
+
+	// the values tried for each parameter
+	private static final Map<Param, double[]> candidates = new HashMap<Param, double[]>();
+	static {
+		candidates.put(Param.CANNY_LOW, new double[] {30, 40, 50, 60, 70, 80});
+		candidates.put(Param.CANNY_RATIO, new double[] {2, 2.5, 3, 3.5});
+		candidates.put(Param.REG_RADIUS_MIN, new double[] {60, 63, 65, 68});
+		candidates.put(Param.REG_RADIUS_MAX, new double[] {80, 85, 90});
+		candidates.put(Param.REG_DP, new double[] {1, 1.2, 1.5});
+		candidates.put(Param.REG_MIN_DIST, new double[] {10, 20, 40});
+		candidates.put(Param.REG_PARAM1, new double[] {100, 150, 200, 250});
+		candidates.put(Param.REG_PARAM2, new double[] {60, 80, 100, 120});
+		candidates.put(Param.DISC_RADIUS_MIN, new double[] {35, 40, 45});
+		candidates.put(Param.DISC_RADIUS_MAX, new double[] {60, 65});
+		candidates.put(Param.DISC_DP, new double[] {1, 1.2, 1.5});
+		candidates.put(Param.DISC_PARAM1, new double[] {60, 100, 150});
+		candidates.put(Param.DISC_PARAM2, new double[] {30, 40, 50, 60});
+		candidates.put(Param.INNER_RADIUS_MIN, new double[] {8, 10, 12});
+		candidates.put(Param.INNER_RADIUS_MAX, new double[] {20, 25, 30});
+		candidates.put(Param.INNER_PARAM1, new double[] {60, 80, 100});
+		candidates.put(Param.INNER_PARAM2, new double[] {15, 20, 25, 30});
+		candidates.put(Param.INNER_OFF, new double[] {12, 15, 17, 20});
+	}
+
+	// limits of the search
+	private static final int maxPasses = 3;
+	private static final double accuracyEpsilon = 1e-9;
+	private static final double latencyMargin = 0.05; // must be 5% faster to be better
+
+	/**
+	 * A cell from the corpus, with its cached images.
+	 */
+	private static class TuneCell {
+		final Mat src; // the cell image (color)
+		final int truth; // the true cell type
+		final Mat gray; // gray scale rendering
+		String edgesKey = null; // Canny parameters of the edges
+		Mat edges = null; // for edgesKey
+
+		TuneCell(Mat src, int truth) {
+			this.src = src;
+			this.truth = truth;
+			gray = new Mat();
+			Imgproc.cvtColor(src, gray, Imgproc.COLOR_BGR2GRAY);
+		}
+
+		/**
+		 * Returns the edges for the Canny parameters of a trial, finding them if they
+		 * are not the ones kept; the ones kept are released. A cell is only used by one
+		 * worker during a trial.
+		 */
+		Mat getEdges(CellTypeDetectorCircle detector, DetectorParameters params) {
+			String key = params.get(Param.CANNY_LOW) + "/" + params.get(Param.CANNY_RATIO);
+			if (!key.equals(edgesKey)) {
+				if (edges != null) edges.release();
+				edges = detector.findEdgesGray(gray);
+				edgesKey = key;
+			}
+			return edges;
+		}
+	}
+
+	/**
+	 * The result of a trial of a set of parameters.
+	 */
+	public static class Trial {
+		public final DetectorParameters params;
+		public final double accuracy; // 0 to 1
+		public final long meanNanos; // per cell
+
+		Trial(DetectorParameters params, double accuracy, long meanNanos) {
+			this.params = params;
+			this.accuracy = accuracy;
+			this.meanNanos = meanNanos;
+		}
+
+		/**
+		 * Indicates if this trial is better than another: more accurate, or as accurate
+		 * and enough faster.
+		 */
+		boolean isBetterThan(Trial other) {
+			if (accuracy > other.accuracy + accuracyEpsilon) return true;
+			if (accuracy < other.accuracy - accuracyEpsilon) return false;
+			return meanNanos < (1 - latencyMargin) * other.meanNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("accuracy: %.2f%% cell millisec: %.2f", 100 * accuracy, meanNanos / 1e6);
+		}
+	}
+
+	private final List<TuneCell> cells = new ArrayList<TuneCell>();
+	private final int threads;
+	private final ExecutorService pool;
+
+	// each worker has its own detector, since a detector is not thread safe
+	private final ThreadLocal<CellTypeDetectorCircle> localDetector = new ThreadLocal<CellTypeDetectorCircle>() {
+		@Override
+		protected CellTypeDetectorCircle initialValue() {
+			return new CellTypeDetectorCircle();
+		}
+	};
+
+	// the trials done so far, by parameters, so none is repeated
+	private final Map<String, Trial> trials = new HashMap<String, Trial>();
+
+	/**
+	 * Creates a tuner, cutting all the labelled scenes of a corpus into cells.
+	 *
+	 * @param corpus the scenes
+	 * @param threads number of worker threads
+	 */
+	public DetectorAutotuner(SceneCorpus corpus, int threads) {
+		this.threads = threads;
+		pool = Executors.newFixedThreadPool(threads);
+
+		TicTacToeAnalyzer analyzer = new TicTacToeAnalyzer();
+		for (SceneCorpus.Scene scene : corpus.getScenes()) {
+			if (scene.truth == null) continue;
+			try {
+				analyzer.initImage(scene.imageBytes);
+			} catch (ImagingOpException ex) {
+				System.out.println(scene.name + ": skipped; " + ex.getMessage());
+				continue;
+			}
+			Mat[][] sceneCells = analyzer.getCells();
+			for (int row = 0; row < 3; row++) {
+				for (int col = 0; col < 3; col++) {
+					cells.add(new TuneCell(sceneCells[row][col], scene.truth.getCell(row, col)));
+				}
+			}
+		}
+		System.out.println("Cells for tuning: " + cells.size());
+	}
+
+	/**
+	 * Tries a set of parameters over all cells, in parallel.
+	 *
+	 * @param params to try
+	 * @return the result
+	 */
+	public Trial evaluate(final DetectorParameters params) throws InterruptedException {
+		String key = params.toString();
+		Trial trial = trials.get(key);
+		if (trial != null) return trial;
+
+		// split the cells among the workers
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		int chunk = (cells.size() + threads - 1) / threads;
+		for (int first = 0; first < cells.size(); first += chunk) {
+			final List<TuneCell> part = cells.subList(first, Math.min(cells.size(), first + chunk));
+			results.add(pool.submit(new Callable<long[]>() {
+				@Override
+				public long[] call() {
+					CellTypeDetectorCircle detector = localDetector.get();
+					detector.setParameters(params);
+					long correct = 0;
+					long nanos = 0;
+					for (TuneCell cell : part) {
+						Mat edges = cell.getEdges(detector, params);
+						long start = System.nanoTime();
+						int type = detector.findCellType(cell.src, edges);
+						nanos += System.nanoTime() - start;
+						if (type == cell.truth) correct++;
+					}
+					long[] counts = {correct, nanos};
+					return counts;
+				}
+			}));
+		}
+
+		// combine
+		long correct = 0;
+		long nanos = 0;
+		for (Future<long[]> result : results) {
+			try {
+				long[] counts = result.get();
+				correct += counts[0];
+				nanos += counts[1];
+			} catch (ExecutionException ex) {
+				throw new ImagingOpException("Trial failed: " + ex.getCause());
+			}
+		}
+		int count = Math.max(1, cells.size());
+		trial = new Trial(params, (double) correct / count, nanos / count);
+		trials.put(key, trial);
+		return trial;
+	}
+
+	/**
+	 * Searches for the best parameters, by coordinate descent.
+	 *
+	 * @param start the parameters to start from
+	 * @return the best trial
+	 */
+	public Trial tune(DetectorParameters start) throws InterruptedException {
+		Trial best = evaluate(start);
+		System.out.println("Start: " + best);
+
+		for (int pass = 1; pass <= maxPasses; pass++) {
+			boolean improved = false;
+			for (Param param : Param.values()) {
+				double[] values = candidates.get(param);
+				if (values == null) continue;
+				for (double value : values) {
+					DetectorParameters params = new DetectorParameters(best.params);
+					params.set(param, value);
+					if (!params.isValid()) continue;
+					Trial trial = evaluate(params);
+					if (trial.isBetterThan(best)) {
+						System.out.println("Pass " + pass + ": " + param.key() + "=" + value + " " + trial);
+						best = trial;
+						improved = true;
+					}
+				}
+			}
+			System.out.println("After pass " + pass + ": " + best + " (trials: " + trials.size() + ")");
+			if (!improved) break;
+		}
+		return best;
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("Usage: DetectorAutotuner corpusDir [threads] [profile]");
+			return;
+		}
+
+		SceneCorpus corpus = new SceneCorpus(FileSystems.getDefault().getPath(args[0]));
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Path profile = FileSystems.getDefault().getPath((args.length > 2) ? args[2] : DetectorParameters.PROFILE);
+		System.out.println("Scenes: " + corpus.size() + " labelled: " + corpus.labelled() + " threads: " + threads);
+
+		DetectorAutotuner tuner = new DetectorAutotuner(corpus, threads);
+		try {
+			Trial best = tuner.tune(DetectorParameters.loadProfile());
+			System.out.println("Best: " + best);
+			System.out.println(best.params);
+			best.params.save(profile, "DetectorAutotuner " + best);
+			System.out.println("Saved profile: " + profile.toAbsolutePath());
+		} finally {
+			tuner.shutdown();
+		}
+	}
+
+}
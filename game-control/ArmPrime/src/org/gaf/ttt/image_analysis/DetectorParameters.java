@@ -0,0 +1,222 @@
+/**
+ * This class holds the tuning parameters of CellTypeDetectorCircle, so they can be
+ * changed without changing code, e.g., for different lighting conditions.
+ *
+ * A set of parameters (a profile) is kept in a properties file, with a key per parameter,
+ * e.g., "canny_low=50.0". Parameters not in the file keep their default value. The
+ * detector loads the profile in the current directory (PROFILE) at startup, if it exists.
+ * DetectorAutotuner produces profiles.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+public class DetectorParameters {
+
+	// the profile loaded at startup, if it exists
+	public static final String PROFILE = "detector.properties";
+
+	// the parameters, with default values
+	public enum Param {
+		CANNY_LOW(50), // Canny low threshold
+		CANNY_RATIO(3), // Canny high threshold / low threshold
+		REG_RADIUS_MIN(65), // registration circle
+		REG_RADIUS_MAX(85),
+		REG_DP(1.2),
+		REG_MIN_DIST(20),
+		REG_PARAM1(200),
+		REG_PARAM2(100),
+		DISC_RADIUS_MIN(40), // token disc
+		DISC_RADIUS_MAX(65),
+		DISC_DP(1),
+		DISC_MIN_DIST(20),
+		DISC_PARAM1(100),
+		DISC_PARAM2(50),
+		INNER_RADIUS_MIN(10), // inner circle of a O
+		INNER_RADIUS_MAX(25),
+		INNER_DP(1.2),
+		INNER_MIN_DIST(20),
+		INNER_PARAM1(80),
+		INNER_PARAM2(25),
+		INNER_OFF(17), // border cropped off the token before finding the inner circle
+		VERIFY_RADIUS(35), // disc examined to verify a token
+		VERIFY_DARK(100), // gray below this is dark (part of a token)
+		VERIFY_RED_FACTOR(2.5), // red if factor * b < r and factor * g < r
+		VERIFY_TOKEN(0.5), // dark + red fraction of the disc below which no token
+		VERIFY_TOKEN_FULL(0.85), // dark + red fraction of the disc for full confidence
+		VERIFY_RED(0.05); // red fraction that separates a O from a X
+
+		public final double defaultValue;
+
+		Param(double defaultValue) {
+			this.defaultValue = defaultValue;
+		}
+
+		/**
+		 * Returns the key for the parameter in a profile.
+		 *
+		 * @return the key
+		 */
+		public String key() {
+			return name().toLowerCase();
+		}
+	};
+
+	private final double[] values = new double[Param.values().length];
+
+	/**
+	 * Creates a set of parameters with default values.
+	 */
+	public DetectorParameters() {
+		for (Param param : Param.values()) {
+			values[param.ordinal()] = param.defaultValue;
+		}
+	}
+
+	/**
+	 * Creates a copy of a set of parameters.
+	 *
+	 * @param other parameters to copy
+	 */
+	public DetectorParameters(DetectorParameters other) {
+		System.arraycopy(other.values, 0, values, 0, values.length);
+	}
+
+	/**
+	 * Returns the value of a parameter.
+	 *
+	 * @param param of interest
+	 * @return value
+	 */
+	public double get(Param param) {
+		return values[param.ordinal()];
+	}
+
+	/**
+	 * Returns the value of a parameter, rounded to an integer (e.g., for a radius).
+	 *
+	 * @param param of interest
+	 * @return value
+	 */
+	public int getInt(Param param) {
+		return (int) Math.round(values[param.ordinal()]);
+	}
+
+	/**
+	 * Sets the value of a parameter.
+	 *
+	 * @param param to set
+	 * @param value of the parameter
+	 */
+	public void set(Param param, double value) {
+		values[param.ordinal()] = value;
+	}
+
+	/**
+	 * Checks that the parameters make sense, e.g., the radius bands are not empty.
+	 *
+	 * @return true if valid
+	 */
+	public boolean isValid() {
+		return get(Param.REG_RADIUS_MIN) < get(Param.REG_RADIUS_MAX) &&
+				get(Param.DISC_RADIUS_MIN) < get(Param.DISC_RADIUS_MAX) &&
+				get(Param.INNER_RADIUS_MIN) < get(Param.INNER_RADIUS_MAX) &&
+				get(Param.DISC_RADIUS_MAX) <= get(Param.REG_RADIUS_MIN) &&
+				get(Param.CANNY_LOW) > 0 && get(Param.CANNY_RATIO) >= 1;
+	}
+
+	/**
+	 * Returns a copy with the radius bands narrowed about their middle, for cells that
+	 * all have the same size and shape (see TicTacToeAnalyzer.setRectification()).
+	 *
+	 * @param fraction of each band to keep (0 to 1)
+	 * @return the narrowed parameters
+	 */
+	public DetectorParameters narrowBands(double fraction) {
+		DetectorParameters narrowed = new DetectorParameters(this);
+		Param[][] bands = {{Param.REG_RADIUS_MIN, Param.REG_RADIUS_MAX},
+				{Param.DISC_RADIUS_MIN, Param.DISC_RADIUS_MAX},
+				{Param.INNER_RADIUS_MIN, Param.INNER_RADIUS_MAX}};
+		for (Param[] band : bands) {
+			double middle = (get(band[0]) + get(band[1])) / 2;
+			double half = fraction * (get(band[1]) - get(band[0])) / 2;
+			narrowed.set(band[0], Math.floor(middle - half));
+			narrowed.set(band[1], Math.ceil(middle + half));
+		}
+		return narrowed;
+	}
+
+	/**
+	 * Loads a profile. Parameters not in the profile are not changed.
+	 *
+	 * @param file the profile
+	 * @throws IOException
+	 */
+	public void load(Path file) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		}
+		for (Param param : Param.values()) {
+			String value = props.getProperty(param.key());
+			if (value != null) {
+				set(param, Double.parseDouble(value.trim()));
+			}
+		}
+	}
+
+	/**
+	 * Saves the parameters as a profile.
+	 *
+	 * @param file the profile
+	 * @param comment for the head of the file
+	 * @throws IOException
+	 */
+	public void save(Path file, String comment) throws IOException {
+		Properties props = new Properties();
+		for (Param param : Param.values()) {
+			props.setProperty(param.key(), Double.toString(get(param)));
+		}
+		try (OutputStream out = Files.newOutputStream(file)) {
+			props.store(out, comment);
+		}
+	}
+
+	/**
+	 * Returns the parameters in the startup profile, if it exists, else the defaults.
+	 *
+	 * @return the parameters
+	 */
+	public static DetectorParameters loadProfile() {
+		DetectorParameters params = new DetectorParameters();
+		Path file = FileSystems.getDefault().getPath(PROFILE);
+		if (Files.exists(file)) {
+			try {
+				params.load(file);
+				System.out.println("DetectorParameters: loaded " + file.toAbsolutePath());
+			} catch (IOException | NumberFormatException ex) {
+				System.out.println("DetectorParameters: bad profile; using defaults: " + ex.getMessage());
+				params = new DetectorParameters();
+			}
+		}
+		return params;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Param param : Param.values()) {
+			if (sb.length() > 0) sb.append(" ");
+			sb.append(param.key() + "=" + get(param));
+		}
+		return sb.toString();
+	}
+
+}
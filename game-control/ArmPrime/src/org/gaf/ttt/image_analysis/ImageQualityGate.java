@@ -0,0 +1,148 @@
+/**
+ * This class does a cheap check of the quality of the game board image, before the full
+ * analysis. A bad image (blurred, or over or under exposed) otherwise shows up only when
+ * the analysis fails, after the arm has already moved a token.
+ *
+ * The checks, on the gray scale board:
+ * -- sharpness: the variance of the Laplacian; low means blurred
+ * -- clipping: the fraction of pixels at (or near) white or black
+ * -- brightness: the mean level
+ *
+ * For an exposure problem, a change of exposure compensation is suggested, in the units
+ * of the camera (1/6 stop).
+ *
+ * THE LEVELS MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+public class ImageQualityGate {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	public enum Verdict {GOOD, BLURRED, OVEREXPOSED, UNDEREXPOSED};
+
+	// levels
+	private static final double minSharpness = 50.0; // Laplacian variance
+	private static final double maxClipped = 0.05; // fraction of pixels at white or black
+	private static final int whiteLevel = 250;
+	private static final int blackLevel = 5;
+	private static final double minMean = 60.0;
+	private static final double maxMean = 200.0;
+	private static final double targetMean = 130.0;
+	private static final int maxExposureStep = 12; // 2 stops
+
+	// reused for each check
+	private final Mat gray = new Mat();
+	private final Mat laplacian = new Mat();
+	private final Mat clipped = new Mat();
+	private final MatOfDouble mean = new MatOfDouble();
+	private final MatOfDouble stddev = new MatOfDouble();
+
+	// statistics of the last check
+	private double sharpness = 0;
+	private double whiteFraction = 0;
+	private double blackFraction = 0;
+	private double brightness = 0;
+	private Verdict verdict = Verdict.GOOD;
+
+	// metrics
+	private final long[] verdicts = new long[Verdict.values().length];
+	private long totalNanos = 0;
+
+	/**
+	 * Checks the quality of a game board image.
+	 *
+	 * @param board the game board image (color)
+	 * @return the verdict
+	 */
+	public Verdict check(Mat board) {
+		long start = System.nanoTime();
+		Imgproc.cvtColor(board, gray, Imgproc.COLOR_BGR2GRAY);
+		double pixels = gray.total();
+
+		// brightness and clipping
+		Core.meanStdDev(gray, mean, stddev);
+		brightness = mean.toArray()[0];
+		Core.inRange(gray, new Scalar(whiteLevel), new Scalar(255), clipped);
+		whiteFraction = Core.countNonZero(clipped) / pixels;
+		Core.inRange(gray, new Scalar(0), new Scalar(blackLevel), clipped);
+		blackFraction = Core.countNonZero(clipped) / pixels;
+
+		// sharpness
+		Imgproc.Laplacian(gray, laplacian, CvType.CV_16S);
+		Core.meanStdDev(laplacian, mean, stddev);
+		double sd = stddev.toArray()[0];
+		sharpness = sd * sd;
+
+		if (whiteFraction > maxClipped || brightness > maxMean) {
+			verdict = Verdict.OVEREXPOSED;
+		} else if (blackFraction > maxClipped || brightness < minMean) {
+			verdict = Verdict.UNDEREXPOSED;
+		} else if (sharpness < minSharpness) {
+			verdict = Verdict.BLURRED;
+		} else {
+			verdict = Verdict.GOOD;
+		}
+		verdicts[verdict.ordinal()]++;
+		totalNanos += System.nanoTime() - start;
+		if (DEBUG) System.out.println("ImageQualityGate: " + getStatistics());
+		return verdict;
+	}
+
+	/**
+	 * Suggests a change of exposure compensation to correct the exposure of the last
+	 * image checked.
+	 *
+	 * @return the change, in 1/6 stop; 0 if the exposure is good (or the image blurred)
+	 */
+	public int getExposureStep() {
+		if (verdict != Verdict.OVEREXPOSED && verdict != Verdict.UNDEREXPOSED) return 0;
+
+		// each stop doubles the level
+		double stops = Math.log(targetMean / Math.max(1.0, brightness)) / Math.log(2);
+		int step = (int) Math.round(6 * stops);
+		if (step == 0) step = (verdict == Verdict.OVEREXPOSED) ? -3 : 3; // clipping, not mean
+		return Math.max(-maxExposureStep, Math.min(maxExposureStep, step));
+	}
+
+	/**
+	 * Returns the verdict of the last check.
+	 *
+	 * @return verdict
+	 */
+	public Verdict getVerdict() {
+		return verdict;
+	}
+
+	/**
+	 * Returns the statistics of the last check.
+	 *
+	 * @return a description
+	 */
+	public String getStatistics() {
+		return String.format("%s sharpness: %.0f white: %.3f black: %.3f brightness: %.0f", verdict,
+				sharpness, whiteFraction, blackFraction, brightness);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Quality checks:");
+		long checks = 0;
+		for (Verdict v : Verdict.values()) {
+			sb.append(' ').append(v).append(": ").append(verdicts[v.ordinal()]);
+			checks += verdicts[v.ordinal()];
+		}
+		sb.append(String.format(" mean millisec: %.1f", (checks == 0) ? 0.0 : (totalNanos / 1e6 / checks)));
+		return sb.toString();
+	}
+
+}
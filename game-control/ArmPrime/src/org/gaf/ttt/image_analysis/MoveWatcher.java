@@ -0,0 +1,183 @@
+/**
+ * This class watches a stream of low resolution preview images of the platform to find
+ * out when the human has finished a move, so that no button press is needed.
+ *
+ * Each preview is reduced to the mean brightness of each of the 9 cells of the board, so
+ * watching is very cheap. Changes are measured as the largest change in any cell mean,
+ * either from the baseline (the board before the move) or from the previous preview.
+ *
+ * The phases of a move:
+ * -- IDLE: the board looks like the baseline; small, slow changes (e.g., lighting) are
+ *    absorbed into the baseline
+ * -- HAND: something (a hand) changed the board; wait for it to stop changing
+ * -- SETTLING: the board stopped changing; if it stays still for a number of previews,
+ *    the move is DONE if the board differs from the baseline (a token was placed), or
+ *    back to IDLE if not (the hand came and went)
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+public class MoveWatcher {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	public enum Phase {IDLE, HAND, SETTLING, DONE};
+
+	// width of a full resolution scene, to scale the board region to a preview
+	private static final int sceneWidth = 2592;
+
+	// levels, in cell mean brightness
+	private static final double handLevel = 25.0; // change from baseline for a hand (or token)
+	private static final double stillLevel = 4.0; // change between previews when still
+	private static final double placedLevel = 15.0; // change from baseline for a placed token
+
+	// number of still previews for the board to be stable
+	private static final int stableFrames = 5;
+
+	private final Rect boardRegion; // board in full resolution scene coordinates
+	private Phase phase = Phase.IDLE;
+	private double[] baseline = null;
+	private double[] previous = null;
+	private int stillCount = 0;
+	private int frames = 0;
+
+	/**
+	 * Creates a watcher.
+	 *
+	 * @param boardRegion the region of the scene holding the board, at full resolution
+	 */
+	public MoveWatcher(Rect boardRegion) {
+		this.boardRegion = boardRegion;
+	}
+
+	/**
+	 * Starts watching for a new move; the next preview becomes the baseline.
+	 */
+	public void reset() {
+		phase = Phase.IDLE;
+		baseline = null;
+		previous = null;
+		stillCount = 0;
+		frames = 0;
+	}
+
+	/**
+	 * Adds a preview image.
+	 *
+	 * @param preview the encoded (JPEG) preview image
+	 * @return true if the move is done
+	 */
+	public boolean addFrame(byte[] preview) {
+		Mat gray = Highgui.imdecode(new MatOfByte(preview), Highgui.IMREAD_GRAYSCALE);
+		double[] means = cellMeans(gray);
+		gray.release();
+		frames++;
+
+		if (baseline == null) {
+			baseline = means;
+			previous = means;
+			return false;
+		}
+		double fromBase = maxDiff(means, baseline);
+		double fromPrevious = maxDiff(means, previous);
+		previous = means;
+		if (DEBUG) System.out.println("MoveWatcher: " + phase + " base: " + fromBase + " previous: " + fromPrevious);
+
+		switch (phase) {
+		case IDLE:
+			if (fromBase > handLevel) {
+				phase = Phase.HAND;
+			} else if (fromPrevious < stillLevel) {
+				baseline = means; // follow slow changes
+			}
+			break;
+		case HAND:
+			if (fromPrevious < stillLevel) {
+				phase = Phase.SETTLING;
+				stillCount = 1;
+			}
+			break;
+		case SETTLING:
+			if (fromPrevious >= stillLevel) {
+				phase = Phase.HAND;
+			} else if (++stillCount >= stableFrames) {
+				if (fromBase > placedLevel) {
+					phase = Phase.DONE;
+				} else { // nothing placed
+					phase = Phase.IDLE;
+					baseline = means;
+				}
+			}
+			break;
+		case DONE:
+			break;
+		}
+
+		return phase == Phase.DONE;
+	}
+
+	/**
+	 * Finds the mean brightness of each cell of the board in a preview.
+	 *
+	 * @param gray the preview (gray scale)
+	 * @return the 9 cell means, row by row
+	 */
+	private double[] cellMeans(Mat gray) {
+		double scale = (double) gray.cols() / sceneWidth;
+		int x = (int) (boardRegion.x * scale);
+		int y = (int) (boardRegion.y * scale);
+		int w = (int) (boardRegion.width * scale);
+		int h = (int) (boardRegion.height * scale);
+		Mat board = new Mat(gray, new Rect(x, y, w, h));
+		Mat blurred = new Mat();
+		Imgproc.blur(board, blurred, new Size(3, 3));
+
+		double[] means = new double[9];
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				Rect cell = new Rect(col * w / 3, row * h / 3, w / 3, h / 3);
+				means[3 * row + col] = Core.mean(new Mat(blurred, cell)).val[0];
+			}
+		}
+		return means;
+	}
+
+	/**
+	 * Finds the largest difference between two sets of cell means.
+	 */
+	private static double maxDiff(double[] a, double[] b) {
+		double max = 0;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the phase of the move.
+	 *
+	 * @return the phase
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Returns the number of previews since reset.
+	 *
+	 * @return count
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * This class does a fast check for something over the game board (a hand, an arm, or a
+ * shadow) in a low resolution preview, before a full resolution image is captured. An
+ * occluded board otherwise shows up only after a full analysis, as failed corners or
+ * NO_REG, and the human has to retry.
+ *
+ * Two statistics of the board region are checked:
+ * -- skin: the fraction of pixels with skin color (in YCrCb; the red of a O token is
+ *    more saturated than skin, so is not counted)
+ * -- shadow: the mean brightness, compared to the mean of recent boards that were not
+ *    occluded
+ *
+ * THE LEVELS MIGHT HAVE TO BE TWEAKED FOR LIGHTING CONDITIONS!
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+public class OcclusionDetector {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// width of a full resolution scene, to scale the board region to a preview
+	private static final int sceneWidth = 2592;
+
+	// skin color range in YCrCb
+	private static final Scalar skinLow = new Scalar(40, 135, 85);
+	private static final Scalar skinHigh = new Scalar(255, 173, 127);
+
+	// levels for deciding
+	private static final double maxSkinFraction = 0.02; // more skin than this is occluded
+	private static final double shadowRatio = 0.8; // darker than this times reference is occluded
+	private static final double referenceWeight = 0.2; // weight of a new board in the reference
+
+	// mean brightness of recent boards that were not occluded; 0 if none yet
+	private double referenceMean = 0;
+
+	// statistics of the last check
+	private double skinFraction = 0;
+	private double brightness = 0;
+
+	// metrics
+	private long checks = 0;
+	private long skinRejects = 0;
+	private long shadowRejects = 0;
+	private long totalNanos = 0;
+
+	/**
+	 * Checks a preview for something over the board.
+	 *
+	 * @param preview the encoded (JPEG) preview image
+	 * @param boardRegion the region of the scene holding the board, at full resolution
+	 * @return true if the board is occluded
+	 */
+	public boolean isOccluded(byte[] preview, Rect boardRegion) {
+		long start = System.nanoTime();
+		checks++;
+
+		// get the board region of the preview
+		Mat frame = Highgui.imdecode(new MatOfByte(preview), Highgui.IMREAD_COLOR);
+		double scale = (double) frame.cols() / sceneWidth;
+		Rect region = new Rect((int) (boardRegion.x * scale), (int) (boardRegion.y * scale),
+				(int) (boardRegion.width * scale), (int) (boardRegion.height * scale));
+		Mat board = new Mat(frame, region);
+
+		// skin
+		Mat ycrcb = new Mat();
+		Imgproc.cvtColor(board, ycrcb, Imgproc.COLOR_BGR2YCrCb);
+		Mat skin = new Mat();
+		Core.inRange(ycrcb, skinLow, skinHigh, skin);
+		skinFraction = (double) Core.countNonZero(skin) / (region.width * region.height);
+
+		// shadow
+		brightness = Core.mean(ycrcb).val[0];
+
+		boolean occluded = false;
+		if (skinFraction > maxSkinFraction) {
+			skinRejects++;
+			occluded = true;
+		} else if (referenceMean > 0 && brightness < shadowRatio * referenceMean) {
+			shadowRejects++;
+			occluded = true;
+		} else { // a clear board; update the reference
+			referenceMean = (referenceMean == 0) ? brightness :
+				((1 - referenceWeight) * referenceMean + referenceWeight * brightness);
+		}
+		if (DEBUG) System.out.println("OcclusionDetector: skin " + skinFraction + " brightness " +
+				brightness + " reference " + referenceMean + " occluded " + occluded);
+
+		frame.release();
+		totalNanos += System.nanoTime() - start;
+		return occluded;
+	}
+
+	/**
+	 * Returns the statistics of the last check.
+	 *
+	 * @return skin fraction, brightness, reference brightness
+	 */
+	public double[] getStatistics() {
+		double[] stats = {skinFraction, brightness, referenceMean};
+		return stats;
+	}
+
+	/**
+	 * Returns the metrics since created.
+	 *
+	 * @return count of checks, rejected for skin, rejected for shadow
+	 */
+	public long[] getCounts() {
+		long[] counts = {checks, skinRejects, shadowRejects};
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Occlusion checks: %d skin: %d shadow: %d mean millisec: %.1f", checks,
+				skinRejects, shadowRejects, (checks == 0) ? 0.0 : (totalNanos / 1e6 / checks));
+	}
+
+}
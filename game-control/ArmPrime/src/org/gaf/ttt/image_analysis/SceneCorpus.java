@@ -0,0 +1,104 @@
+/**
+ * This class holds a corpus of saved scenes, each with its true game board, for offline
+ * testing and tuning of image analysis.
+ *
+ * A corpus is a directory. Each scene is an image file (.jpg as sent by the camera and
+ * written by TicTacToeAnalyzer.saveScene(), or .png). The true board for a
+ * scene is in a text file with the same name but a ".txt" extension; the format is that
+ * of TicTacToeGameBoard.parseBoard(), e.g., "XO-/---/--X". A scene without a label is
+ * still loaded (useful for timing), but has no true board.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+
+public class SceneCorpus {
+
+	/**
+	 * A single scene in the corpus.
+	 */
+	public static class Scene {
+		public final String name; // file name of the scene
+		public final byte[] imageBytes; // the encoded image, as from the camera
+		public final TicTacToeGameBoard truth; // the true board; null if not labelled
+
+		public Scene(String name, byte[] imageBytes, TicTacToeGameBoard truth) {
+			this.name = name;
+			this.imageBytes = imageBytes;
+			this.truth = truth;
+		}
+	}
+
+	// the scenes
+	private final List<Scene> scenes = new ArrayList<Scene>();
+
+	/**
+	 * Loads all the scenes in a directory.
+	 *
+	 * @param dir the corpus directory
+	 * @throws IOException
+	 */
+	public SceneCorpus(Path dir) throws IOException {
+
+		// find the image files, in name order so runs are repeatable
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.{png,jpg,jpeg,PNG,JPG,JPEG}")) {
+			for (Path file : ds) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+
+		// load the scenes and labels
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			Path labelFile = file.resolveSibling(name.replaceFirst("\\.[^.]*$", ".txt"));
+			TicTacToeGameBoard truth = null;
+			if (Files.exists(labelFile)) {
+				truth = TicTacToeGameBoard.parseBoard(new String(Files.readAllBytes(labelFile)));
+			}
+			scenes.add(new Scene(name, Files.readAllBytes(file), truth));
+		}
+	}
+
+	/**
+	 * Returns the scenes.
+	 *
+	 * @return the scenes (not a copy)
+	 */
+	public List<Scene> getScenes() {
+		return scenes;
+	}
+
+	/**
+	 * Returns the number of scenes.
+	 *
+	 * @return count
+	 */
+	public int size() {
+		return scenes.size();
+	}
+
+	/**
+	 * Returns the number of scenes with a true board.
+	 *
+	 * @return count
+	 */
+	public int labelled() {
+		int count = 0;
+		for (Scene scene : scenes) {
+			if (scene.truth != null) count++;
+		}
+		return count;
+	}
+
+}
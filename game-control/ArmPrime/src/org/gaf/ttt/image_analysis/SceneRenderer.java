@@ -0,0 +1,359 @@
+/**
+ * This class renders synthetic scenes of the platform, for any game board, so that image
+ * analysis can be benchmarked and tested without the robot and camera. A scene is a
+ * 2592x1944 JPEG, like those sent by the camera for "send_pic".
+ *
+ * A scene has the board (white, with the grid lines), a registration circle in each cell,
+ * and the tokens: a black disc, with a red inner circle for a O. The board is where the
+ * fixed crop in TicTacToeAnalyzer expects it, give or take a random offset and rotation.
+ *
+ * Things that can be controlled:
+ * -- jitter: the largest random offset (pixels) and rotation (degrees) of the board
+ * -- tint: the largest random change in the level of each color (fraction), for lighting
+ * -- noise: the standard deviation of gaussian noise added to each pixel
+ * -- blur: the size of the gaussian blur (0 means none)
+ * -- JPEG quality; the camera uses 100
+ *
+ * To keep rendering fast, the background is rendered once, the board is drawn directly
+ * into the scene, and noise and blur are applied only to the region around the board
+ * (the only region analyzed).
+ *
+ * The seed makes the boards, offsets, and tints repeatable; the noise comes from the
+ * OpenCV random number generator, so is not.
+ *
+ * A renderer is not thread safe; each thread should have its own.
+ *
+ * Usage: SceneRenderer corpusDir count [threads] [seed]
+ * writes a labelled corpus (see SceneCorpus) of random boards.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+public class SceneRenderer {
+
+	// the scene, as captured by the camera
+	public static final int WIDTH = 2592;
+	public static final int HEIGHT = 1944;
+
+	// the outside corners of the board, in the scene; matches the fixed crop in
+	// TicTacToeAnalyzer (the crop is at 1435, 875, and the corners are 30 inside it)
+	private static final double boardLeft = 1465;
+	private static final double boardTop = 905;
+	private static final double boardSide = 565;
+	private static final double cellSide = boardSide / 3;
+
+	// the board and its features
+	private static final int boardBorder = 40; // white beyond the outside grid lines
+	private static final int lineWidth = 5;
+	private static final int regRadius = 75; // registration circle
+	private static final int regWidth = 3;
+	private static final int discRadius = 52; // token
+	private static final int innerRadius = 17; // red circle in a O
+
+	// colors (BGR)
+	private static final Scalar backgroundColor = new Scalar(95, 100, 105);
+	private static final Scalar boardColor = new Scalar(225, 228, 230);
+	private static final Scalar lineColor = new Scalar(30, 30, 30);
+	private static final Scalar regColor = new Scalar(60, 60, 60);
+	private static final Scalar discColor = new Scalar(35, 35, 35);
+	private static final Scalar innerColor = new Scalar(60, 60, 220);
+
+	// the region that gets noise and blur
+	private static final int regionMargin = 120;
+	private static final Rect region = new Rect((int) boardLeft - regionMargin, (int) boardTop - regionMargin,
+			(int) boardSide + 2 * regionMargin, (int) boardSide + 2 * regionMargin);
+
+	// controls
+	private double maxOffset = 3.0; // pixels
+	private double maxRotation = 0.5; // degrees
+	private double maxTint = 0.05; // fraction
+	private double noiseSigma = 4.0;
+	private int blurSize = 3;
+	private int quality = 100;
+
+	private final Random random;
+
+	// reused for each scene
+	private final Mat background;
+	private final Mat scene = new Mat();
+	private final Mat noise = new Mat(region.height, region.width, CvType.CV_8UC3);
+	private final MatOfByte encoded = new MatOfByte();
+
+	// metrics
+	private long scenes = 0;
+	private long totalNanos = 0;
+
+	/**
+	 * Creates a renderer.
+	 *
+	 * @param seed for the random boards, offsets, and tints
+	 */
+	public SceneRenderer(long seed) {
+		random = new Random(seed);
+		background = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, backgroundColor);
+	}
+
+	/**
+	 * Renders a scene and encodes it, as the camera would.
+	 *
+	 * @param board the game board to show
+	 * @return the encoded (JPEG) scene
+	 */
+	public byte[] render(TicTacToeGameBoard board) {
+		long start = System.nanoTime();
+		renderScene(board);
+		Highgui.imencode(".jpg", scene, encoded, new MatOfInt(Highgui.IMWRITE_JPEG_QUALITY, quality));
+		byte[] bytes = encoded.toArray();
+		totalNanos += System.nanoTime() - start;
+		scenes++;
+		return bytes;
+	}
+
+	/**
+	 * Renders a scene, without encoding.
+	 *
+	 * @param board the game board to show
+	 * @return the scene (color); reused by the next render
+	 */
+	public Mat renderScene(TicTacToeGameBoard board) {
+		background.copyTo(scene);
+
+		// the geometry for this scene
+		double dx = (2 * random.nextDouble() - 1) * maxOffset;
+		double dy = (2 * random.nextDouble() - 1) * maxOffset;
+		double angle = Math.toRadians((2 * random.nextDouble() - 1) * maxRotation);
+		Transform t = new Transform(dx, dy, angle);
+
+		// the board
+		Point[] outline = {t.apply(-boardBorder, -boardBorder), t.apply(boardSide + boardBorder, -boardBorder),
+				t.apply(boardSide + boardBorder, boardSide + boardBorder), t.apply(-boardBorder, boardSide + boardBorder)};
+		Core.fillConvexPoly(scene, new MatOfPoint(outline), boardColor);
+		for (int i = 0; i < 4; i++) {
+			double at = i * cellSide;
+			Core.line(scene, t.apply(at, 0), t.apply(at, boardSide), lineColor, lineWidth);
+			Core.line(scene, t.apply(0, at), t.apply(boardSide, at), lineColor, lineWidth);
+		}
+
+		// the cells
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				Point center = t.apply((col + 0.5) * cellSide, (row + 0.5) * cellSide);
+				Core.circle(scene, center, regRadius, regColor, regWidth);
+				int token = board.getCell(row, col);
+				if (token == TicTacToeGameBoard.CROSS || token == TicTacToeGameBoard.NAUGHT) {
+					Core.circle(scene, center, discRadius, discColor, -1);
+				}
+				if (token == TicTacToeGameBoard.NAUGHT) {
+					Core.circle(scene, center, innerRadius, innerColor, -1);
+				}
+			}
+		}
+
+		// lighting, noise, and focus
+		if (maxTint > 0) {
+			Scalar tint = new Scalar(1 + (2 * random.nextDouble() - 1) * maxTint,
+					1 + (2 * random.nextDouble() - 1) * maxTint, 1 + (2 * random.nextDouble() - 1) * maxTint);
+			Core.multiply(scene, tint, scene);
+		}
+		Mat boardRegion = scene.submat(region);
+		if (noiseSigma > 0) {
+			Core.randn(noise, 128, noiseSigma);
+			Core.addWeighted(boardRegion, 1, noise, 1, -128, boardRegion);
+		}
+		if (blurSize > 0) {
+			Imgproc.GaussianBlur(boardRegion, boardRegion, new Size(blurSize, blurSize), 0);
+		}
+		return scene;
+	}
+
+	/**
+	 * Puts board coordinates (from the top left outside corner) into the scene, with an
+	 * offset and rotation about the center of the board.
+	 */
+	private static class Transform {
+		final double dx, dy, cos, sin;
+
+		Transform(double dx, double dy, double angle) {
+			this.dx = dx;
+			this.dy = dy;
+			cos = Math.cos(angle);
+			sin = Math.sin(angle);
+		}
+
+		Point apply(double x, double y) {
+			double cx = x - boardSide / 2;
+			double cy = y - boardSide / 2;
+			return new Point(boardLeft + boardSide / 2 + cx * cos - cy * sin + dx,
+					boardTop + boardSide / 2 + cx * sin + cy * cos + dy);
+		}
+	}
+
+	/**
+	 * Sets the largest random offset and rotation of the board.
+	 *
+	 * @param maxOffset pixels
+	 * @param maxRotation degrees
+	 */
+	public void setJitter(double maxOffset, double maxRotation) {
+		this.maxOffset = maxOffset;
+		this.maxRotation = maxRotation;
+	}
+
+	/**
+	 * Sets the largest random change in the level of each color.
+	 *
+	 * @param maxTint fraction; 0 means none
+	 */
+	public void setTint(double maxTint) {
+		this.maxTint = maxTint;
+	}
+
+	/**
+	 * Sets the noise added to each pixel.
+	 *
+	 * @param sigma standard deviation; 0 means none
+	 */
+	public void setNoise(double sigma) {
+		this.noiseSigma = sigma;
+	}
+
+	/**
+	 * Sets the blur.
+	 *
+	 * @param size of the gaussian kernel (odd); 0 means none
+	 */
+	public void setBlur(int size) {
+		this.blurSize = size;
+	}
+
+	/**
+	 * Sets the JPEG quality.
+	 *
+	 * @param quality 0 to 100
+	 */
+	public void setQuality(int quality) {
+		this.quality = quality;
+	}
+
+	/**
+	 * Creates a random game board; each cell is empty, X or O.
+	 *
+	 * @return the board
+	 */
+	public TicTacToeGameBoard randomBoard() {
+		TicTacToeGameBoard board = new TicTacToeGameBoard();
+		int[] tokens = {TicTacToeGameBoard.EMPTY, TicTacToeGameBoard.CROSS, TicTacToeGameBoard.NAUGHT};
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				board.setCell(row, col, tokens[random.nextInt(tokens.length)]);
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Describes a board in the format of TicTacToeGameBoard.parseBoard(), e.g., "XO-/---/--X".
+	 *
+	 * @param board to describe
+	 * @return the description
+	 */
+	public static String describe(TicTacToeGameBoard board) {
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < 3; row++) {
+			if (row > 0) sb.append('/');
+			for (int col = 0; col < 3; col++) {
+				int token = board.getCell(row, col);
+				sb.append((token == TicTacToeGameBoard.CROSS) ? 'X' : (token == TicTacToeGameBoard.NAUGHT) ? 'O' : '-');
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Rendered scenes: %d mean millisec: %.1f", scenes,
+				(scenes == 0) ? 0.0 : (totalNanos / 1e6 / scenes));
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: SceneRenderer corpusDir count [threads] [seed]");
+			return;
+		}
+
+		// Load the native OpenCV library.
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		final Path dir = FileSystems.getDefault().getPath(args[0]);
+		Files.createDirectories(dir);
+		final int count = Integer.parseInt(args[1]);
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+
+		// each thread renders every threads-th scene, with its own renderer
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			final int step = threads;
+			final SceneRenderer renderer = new SceneRenderer(seed + t);
+			results.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws IOException {
+					int done = 0;
+					for (int i = first; i < count; i += step) {
+						TicTacToeGameBoard board = renderer.randomBoard();
+						String name = String.format("synthetic-%05d", i);
+						Files.write(dir.resolve(name + ".jpg"), renderer.render(board));
+						Files.write(dir.resolve(name + ".txt"), describe(board).getBytes());
+						done++;
+					}
+					System.out.println(renderer);
+					return done;
+				}
+			}));
+		}
+		int done = 0;
+		try {
+			for (Future<Integer> result : results) {
+				done += result.get();
+			}
+		} catch (ExecutionException ex) {
+			System.out.println("Rendering failed: " + ex.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Scenes: %d seconds: %.1f per minute: %.0f", done, seconds,
+				done * 60 / seconds));
+	}
+
+}
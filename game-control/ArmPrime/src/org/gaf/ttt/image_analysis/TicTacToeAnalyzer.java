@@ -9,13 +9,17 @@
 package org.gaf.ttt.image_analysis;
 
 import java.awt.image.ImagingOpException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.gaf.ttt.common.TicTacToeGameBoard;
 import org.opencv.core.Core;
 import org.opencv.core.CvException;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Range;
 import org.opencv.core.Rect;
@@ -30,23 +34,55 @@ public class TicTacToeAnalyzer {
 	private static final boolean DEBUG = false;
 	
 	// for debug
-	private Mat draw = null;
+	private Mat draw = new Mat();
 	
 //	// possible cell finding results include normal states and this
 //	public static final int NO_REG = -100; // indicates could not find registration circle
 	
-	// ROI used to crop the game board; will likely have to be adjusted on occasion
+	// ROI used to crop the game board when the board cannot be located in the scene
 //	private static Rect gameROI = new Rect(1425, 885, 625, 625); 
 	private static Rect gameROI = new Rect(1435, 875, 625, 625); 
+	
+	// finds the board in the scene once, then each scene is warped to a canonical board
+	BoardLocator locator = new BoardLocator();
+	boolean useLocator = false;
+	boolean boardLocated = false; // board located (not cached) for current image
+	boolean locateFailed = false; // locating failed; use fixed crop until corners fail
 
 	private Mat scene = null; // the full scene captured by camera (here only for debug)	
-	private Mat game = null; // the game board cropped from the scene
-	private Mat grayGame = null; // the gray scale rendering of the game board
+	private int sceneLength = 0; // length of the encoded scene in encoded; 0 if none
+	private Mat encoded = new Mat(); // native copy of the encoded scene; reused, grows as needed
+	// the game board images are reused for each image, so native memory does not wait on 
+	// the garbage collector; the cells are views into the game board
+	private Mat game = new Mat(); // the game board cropped from the scene
+	private Mat grayGame = new Mat(); // the gray scale rendering of the game board
 
 	// the set of cell corners for the game board
 	private static final int dim = 4;
 	private Point[][] cellCorner = new Point[dim][dim];
 	
+	// the corners are cached across images, since the camera and board do not move during
+	// a session; small gray scale patches around each corner allow cheap validation
+	private boolean cornersCached = false;
+	private Mat[][] cornerPatch = new Mat[dim][dim];
+	private static final int patchHalf = 6; // patch is (2 * patchHalf + 1) pixels square
+	private static final double patchMaxDiff = 40.0; // max mean difference for any one patch
+	private static final double patchAvgDiff = 20.0; // max mean difference over all patches
+	private boolean cornersDetected = false; // corners detected (not cached) for current image
+	
+	// the game board can be rectified, i.e., warped so the cell corners are on a fixed grid;
+	// then every cell is the same fixed size tile, at the same place in a reused image, so
+	// the detectors can use narrow radius bands; the transform is found when the corners 
+	// are detected, and cached with them
+	boolean useRectify = false;
+	public static final int CELL_SIDE = 188; // about the mean cell size without rectifying
+	private static final int rectBorder = 10; // around the grid in the rectified board
+	private static final int rectSide = 3 * CELL_SIDE + 2 * rectBorder;
+	private static final double bandFraction = 0.6; // of each radius band kept
+	private Mat rectifyTransform = null; // game board to rectified board; null if not known
+	private Mat rectified = new Mat(); // the rectified game board
+	private DetectorParameters fullBands = null; // detector parameters before rectifying
+	
 	// the individual cells extracted from the game board
 	Mat[][] cell = new Mat[3][3];
 	
@@ -56,8 +92,49 @@ public class TicTacToeAnalyzer {
 	// result of the analysis
 	boolean boardOK = false;
 	
-	// the cell type detector used
+	// the cell types found by the last analysis, including NO_REG
+	int[][] cellType = new int[3][3];
+	
+	// the confidence in each cell type (0 to 1); NO_REG has none
+	double[][] cellConfidence = new double[3][3];
+	
+	// cells of the current image certainly typed by a detector other than the template
+	// detector (e.g., not just verified, or kept from an earlier image); templates learn 
+	// only from these
+	boolean[][] cellTrusted = new boolean[3][3];
+	
+	// times the stages of analysis; shared with the detectors
+	AnalysisTimer timer = new AnalysisTimer();
+	
+	// the circle detector; the most capable, and also used to verify cells
 	CellTypeDetectorCircle detector = new CellTypeDetectorCircle();
+	
+	// the quick first tier detector; only cells it is not sure of go to the circle detector
+	CellTypeDetectorQuick quickDetector = new CellTypeDetectorQuick();
+	
+	// the template detector, if template matching is used; null otherwise
+	CellTypeDetectorTemplate templateDetector = null;
+	
+	// the cascade of detectors used to find cell types
+	CellTypeCascade cascade = new CellTypeCascade(quickDetector, detector);
+	
+	// for finding the board state from just the cells that changed since the last image;
+	// the reference is the gray scale board and cell types from the last good analysis
+	boolean useDifferencing = false;
+	Mat refGrayGame = null; // null means no reference
+	int[][] refCellType = new int[3][3];
+	boolean[][] cellChanged = new boolean[3][3]; // cells that changed in current image
+	private static final double changeLevel = 12.0; // mean difference for a changed cell
+	private static final int maxChanged = 3; // more changed cells means full analysis
+	
+	// checks the quality of an image before analysis; see checkImage()
+	ImageQualityGate qualityGate = new ImageQualityGate();
+	boolean imagePrepared = false; // image set by checkImage(), for the next analysis
+	
+	// the alternative detector that finds the circles of all cells in one pass
+	BoardCircleDetector boardDetector = new BoardCircleDetector();
+	boolean useBoardDetector = false;
+	int[][] boardTypes = null; // cell types from the board detector for current image
 
 	/** 
 	 * Generic constructor. Note that could include setImage() in here
@@ -65,6 +142,15 @@ public class TicTacToeAnalyzer {
 	public TicTacToeAnalyzer() {
 		if (DEBUG) System.out.println("TicTacToeAnalyzer");
 		gameStatus = new TicTacToeGameBoard();
+		
+		// detectors record into the analyzer timer
+		cascade.setTimer(timer);
+		detector.setTimer(timer);
+		boardDetector.setTimer(timer);
+		
+		// both circle detectors use the same profile (the board detector keeps the full
+		// radius bands when rectifying, since it works on the board as captured)
+		boardDetector.setParameters(detector.getParameters());
 
 		// Load the native OpenCV library.
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
@@ -75,38 +161,89 @@ public class TicTacToeAnalyzer {
 	 * processing. Also creates and saves a gray scale rendering of game board to 
 	 * support various processing.
 	 * 
+	 * The board is located in the scene the first time (see BoardLocator); after that
+	 * the cached location is used until the corners can no longer be found.
+	 * 
+	 * The encoded image is put in a native buffer that is reused for each image, so the 
+	 * only copy is the one across to native memory. The scene of the last image is 
+	 * released first, so at most one scene is held. (OpenCV 2.4 cannot decode into an 
+	 * existing image, so the decode itself allocates.)
+	 * 
 	 * @param inputImage a byte array assumed to represent a 2592x1944 pixel image of the platform
+	 * @param length of the encoded image in the array
 	 */
-	private void setImage(byte[] inputImage) {
+	private void setImage(byte[] inputImage, int length) {
     	
 		// create OpenCV image for entire scene
-    	if (DEBUG) System.out.println("image size: " + inputImage.length);
-		MatOfByte mob = new MatOfByte(inputImage);
+    	if (DEBUG) System.out.println("image size: " + length);
+		long start = timer.start();
+		keepScene(inputImage, length);
+		Mat mob = encoded.colRange(0, length);
+		if (scene != null) scene.release();
 		scene = Highgui.imdecode(mob, Highgui.IMREAD_COLOR);
+		mob.release();
+		timer.stop(AnalysisTimer.Stage.DECODE, start);
 		if (DEBUG) {
-			Highgui.imwrite("scene.png", scene);	
+			DebugArtifactSink.getSink().saveBytes("scene.jpg", inputImage, length);	
 			System.out.println("image size: " + scene.size());			
 		}
 		
-		// crop to create an image that is just the game board
-		game = new Mat(scene, gameROI);
+		// find the board, if not already known
+		boardLocated = false;
+		if (useLocator && !locator.isLocated() && !locateFailed) {
+			locateBoard();
+		}
+		
+		cropGame();
+	}
+	
+	/**
+	 * Finds the board in the scene. Any cached corners are no longer good. A failure is 
+	 * remembered, so the search is not repeated for every image (see findCorners()).
+	 */
+	private void locateBoard() {
+		long start = timer.start();
+		locator.locate(scene);
+		timer.stop(AnalysisTimer.Stage.LOCATE, start);
+		boardLocated = true;
+		cornersCached = false;
+		locateFailed = !locator.isLocated();
+		if (locateFailed) {
+			System.out.println("TicTacToeAnalyzer: board not located; using fixed crop");
+		}
+	}
+	
+	/**
+	 * Creates the game board image from the scene, by warping if the board has been 
+	 * located, or by cropping with the fixed ROI. Also creates the gray scale rendering.
+	 */
+	private void cropGame() {
+		
+		// create an image that is just the game board
+		long start = timer.start();
+		if (useLocator && locator.isLocated()) {
+			locator.warp(scene, game);
+		} else { // copy, so the game board does not hold on to the scene
+			Mat crop = new Mat(scene, gameROI);
+			crop.copyTo(game);
+			crop.release();
+		}
 		if (DEBUG) {
 			System.out.println("game-" + game);	
-			Highgui.imwrite("game.png", game);
+			DebugArtifactSink.getSink().saveImage("game.png", game);
 		}
 		
 		// create gray scale of original game board
-		grayGame = new Mat();
 		Imgproc.cvtColor(game, grayGame, Imgproc.COLOR_BGR2GRAY);
 
 		// blur the gray scale
 		Imgproc.blur(grayGame, grayGame, new Size(4,4) );
+		timer.stop(AnalysisTimer.Stage.CROP, start);
 		
 		if (DEBUG) {
 			// output image
-			Highgui.imwrite("blurred.png", grayGame);
+			DebugArtifactSink.getSink().saveImage("blurred.png", grayGame);
 			// make copy of source for debugging 
-			draw = new Mat();		
 			game.copyTo(draw);
 		}
 	}
@@ -115,9 +252,142 @@ public class TicTacToeAnalyzer {
 	/**
 	 * Finds cell corners to facilitate creation of individual cell images
 	 * 
+	 * Uses the cached corners if they are still valid for the current image. Otherwise 
+	 * detects the corners and caches them for future images.
+	 * 
 	 * Uses the gray scale image created by setImage.
 	 */
 	private void findCorners() throws ImagingOpException {
+		
+		// use the cached corners if still good for this image
+		if (cornersCached && validateCorners()) {
+			if (DEBUG) System.out.println("TicTacToeAnalyzer: using cached corners");
+			cornersDetected = false;
+			return;
+		}
+		
+		// must find the corners the hard way
+		cornersCached = false;
+		cornersDetected = true;
+		try {
+			detectCorners();
+		} catch (ImagingOpException ex) {
+			if (!useLocator) throw ex;
+			recoverCorners();
+		}
+		
+		// remember what the image looks like around each corner
+		for (int row = 0; row < dim; row++) {
+			for (int col = 0; col < dim; col++) {
+				cornerPatch[row][col] = getCornerPatch(cellCorner[row][col]).clone();
+			}
+		}
+		cornersCached = true;
+	}
+	
+	/**
+	 * Tries again to find the corners, when the board is located and the corners were
+	 * not found. If the location (or the failure to locate) is from an earlier image, 
+	 * the board may have moved, so it is located again. If the corners cannot be found
+	 * in the located board, the location is wrong (e.g., the outline found is the edge 
+	 * of the board, and with a margin around the grid the outside corners fall outside
+	 * the windows detectCorners() searches), so the fixed crop is used instead. The 
+	 * fixed crop is then kept, without locating, until the corners fail with it too.
+	 * 
+	 * @throws ImagingOpException if the corners cannot be found with the fixed crop
+	 */
+	private void recoverCorners() throws ImagingOpException {
+		
+		// perhaps the board moved; if so, finding it again should help
+		if (!boardLocated) {
+			System.out.println("TicTacToeAnalyzer: corners not found; locating board again");
+			locateBoard();
+			if (locator.isLocated()) {
+				cropGame();
+				try {
+					detectCorners();
+					return;
+				} catch (ImagingOpException ex) {
+					// the location does not fit the grid; use the fixed crop
+				}
+			}
+		}
+		
+		// the located board does not fit the grid, or the board could not be located
+		System.out.println("TicTacToeAnalyzer: corners not found in located board; using fixed crop");
+		locator.invalidate();
+		locateFailed = true;
+		cropGame();
+		try {
+			detectCorners();
+		} catch (ImagingOpException ex) {
+			locateFailed = false; // locate again with the next image
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Checks that the cached corners still fit the current image. Compares a small 
+	 * gray scale patch around each corner with the patch saved when the corners were 
+	 * detected. The board lines and their crossings do not change as tokens are played, 
+	 * so a big difference means the camera or board moved (or something is in the way).
+	 * 
+	 * @return true if the cached corners can be used for the current image
+	 */
+	private boolean validateCorners() {
+		
+		try {
+			Mat diff = new Mat();
+			double total = 0;
+			for (int row = 0; row < dim; row++) {
+				for (int col = 0; col < dim; col++) {
+					// compare the current patch to the cached patch
+					Core.absdiff(getCornerPatch(cellCorner[row][col]), cornerPatch[row][col], diff);
+					double meanDiff = Core.mean(diff).val[0];
+					if (meanDiff > patchMaxDiff) {
+						if (DEBUG) System.out.println("Corner " + row + col + " moved; diff: " + meanDiff);
+						return false;
+					}
+					total += meanDiff;
+				}
+			}
+			
+			double avgDiff = total / (dim * dim);
+			if (DEBUG) System.out.println("Corner validation average diff: " + avgDiff);
+			return avgDiff <= patchAvgDiff;
+			
+		} catch (CvException ex) {
+			System.out.println("TicTacToeAnalyzer: validateCorners(): Low level Cv exception.");
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the small gray scale patch around a corner. 
+	 * 
+	 * @param corner in the game board
+	 * @return the patch (refers to the gray scale game board, so not a copy)
+	 */
+	private Mat getCornerPatch(Point corner) {
+		int px = (int) corner.x - patchHalf;
+		int py = (int) corner.y - patchHalf;
+		int size = 2 * patchHalf + 1;
+		return new Mat(grayGame, new Rect(px, py, size, size));
+	}
+	
+	/**
+	 * Forces the corners to be detected again for the next image. 
+	 */
+	public void invalidateCorners() {
+		cornersCached = false;
+	}
+	
+	/**
+	 * Detects the cell corners in the current image.
+	 * 
+	 * Uses the gray scale image created by setImage.
+	 */
+	private void detectCorners() throws ImagingOpException {
 				
 		// set radius for drawing circles (debug)
 		final int radius = 4;
@@ -202,11 +472,11 @@ public class TicTacToeAnalyzer {
 			
 			// output the debug image
 			if (DEBUG) {
-				Highgui.imwrite("final.png", draw);
+				DebugArtifactSink.getSink().saveImage("final.png", draw);
 			}
 		
 		} catch (Exception ex) {
-			System.out.println("TicTacToeAnalyzer: findCorners() got some problem here");
+			System.out.println("TicTacToeAnalyzer: detectCorners() got some problem here");
 			System.out.println(ex.getMessage());
 			throw new ImagingOpException("EXCEPTION!!! failure to find corners");
 
@@ -232,7 +502,7 @@ public class TicTacToeAnalyzer {
 			// now look at subset of image
 			Mat subset = new Mat(grayGame, new Rect(roiX, roiY, roiW, roiH));
 	
-			if (DEBUG) Highgui.imwrite("graysub.png", subset);
+			if (DEBUG) DebugArtifactSink.getSink().saveImage("graysub.png", subset);
 	
 			// create mat for results
 			MatOfPoint corners = new MatOfPoint();
@@ -261,7 +531,7 @@ public class TicTacToeAnalyzer {
 					System.out.println("corner: " + dot);		
 					Core.circle(grayGame, dot, 2, new Scalar(0, 255, 255), 1, 8, 0);				
 				}
-				Highgui.imwrite("blurred.png", grayGame);
+				DebugArtifactSink.getSink().saveErrorImage("blurred.png", grayGame);
 				
 	
 				throw new ImagingOpException("TicTacToeAnalyzer: findCorner() EXCEPTION!!! Multiple corners detected in " + game + "\n" +
@@ -289,33 +559,17 @@ public class TicTacToeAnalyzer {
 	private Mat[][] parseGame() throws ImagingOpException {
 		
 		try {		
-			// pad around to make sure just "white" around circle
-			int pad = 5;
-			
 			// loop thru using the appropriate cell corners to define where to crop a cell
 			// first look at an ROI approach to avoid copying
 			int dim = 3;
 			for (int row = 0; row < dim; row++) {
 				for (int col = 0; col < dim; col++) {
 					
-					// get upper left and lower right
-					Point ul = cellCorner[row][col];
-					Point lr = cellCorner[row+1][col+1];
-					
-//					System.out.println(ul);
-//					System.out.println(lr);
-					
-					// calculate a ROI using Range; account for padding
-					Range colR = new Range(((int) ul.x) + pad, ((int) lr.x) - pad);
-					Range rowR = new Range(((int) ul.y) + pad, ((int) lr.y) - pad);
-					
-//					System.out.println(colR);
-//					System.out.println(rowR);
-					
-					cell[row][col] = game.submat(rowR, colR);
+					// calculate a ROI; accounts for padding
+					cell[row][col] = (useRectify ? rectified : game).submat(getCellRect(row, col));
 					
 					// output the debug image
-					if (DEBUG) Highgui.imwrite("cell" + row + col + ".png", cell[row][col]);
+					if (DEBUG) DebugArtifactSink.getSink().saveImage("cell" + row + col + ".png", cell[row][col]);
 
 				}
 			}		
@@ -329,6 +583,192 @@ public class TicTacToeAnalyzer {
 	}
 	
 
+	/**
+	 * Warps the game board so the cell corners are on the fixed grid. The transform is 
+	 * found from the outside cell corners when they are detected, and reused while they 
+	 * are cached.
+	 */
+	private void rectifyGame() {
+		if (cornersDetected || rectifyTransform == null) {
+			MatOfPoint2f corners = new MatOfPoint2f(cellCorner[0][0], cellCorner[0][dim-1],
+					cellCorner[dim-1][dim-1], cellCorner[dim-1][0]);
+			MatOfPoint2f grid = new MatOfPoint2f(getGridCorner(0, 0), getGridCorner(0, dim-1),
+					getGridCorner(dim-1, dim-1), getGridCorner(dim-1, 0));
+			rectifyTransform = Imgproc.getPerspectiveTransform(corners, grid);
+		}
+		Imgproc.warpPerspective(game, rectified, rectifyTransform, new Size(rectSide, rectSide),
+				Imgproc.INTER_LINEAR);
+		if (DEBUG) DebugArtifactSink.getSink().saveImage("rectified.png", rectified);
+	}
+	
+	/**
+	 * Returns a cell corner on the fixed grid of the rectified game board.
+	 * 
+	 * @param row of the corner (0 to 3)
+	 * @param col of the corner (0 to 3)
+	 * @return the corner
+	 */
+	private static Point getGridCorner(int row, int col) {
+		return new Point(rectBorder + col * CELL_SIDE, rectBorder + row * CELL_SIDE);
+	}
+	
+	/**
+	 * Selects rectifying the game board, so every cell is a tile of the same size 
+	 * (CELL_SIDE less padding), with the cell corners on a fixed grid. The radius bands of
+	 * the circle detector are narrowed to suit; they are restored when rectifying stops.
+	 * 
+	 * @param rectify true to rectify
+	 */
+	public void setRectification(boolean rectify) {
+		if (rectify == useRectify) return;
+		useRectify = rectify;
+		rectifyTransform = null;
+		cornersCached = false; // so cell geometry for tiles is found again
+		if (rectify) {
+			fullBands = detector.getParameters();
+			detector.setParameters(fullBands.narrowBands(bandFraction));
+		} else if (fullBands != null) {
+			detector.setParameters(fullBands);
+		}
+	}
+	
+	/**
+	 * Returns the region of a cell in the game board image, inside the cell corners. 
+	 * If the board is rectified, the region is in the rectified board.
+	 * 
+	 * @param row of the cell
+	 * @param col of the cell
+	 * @return the region
+	 */
+	Rect getCellRect(int row, int col) {
+		
+		// pad around to make sure just "white" around circle
+		int pad = 5;
+		
+		// with rectifying, every cell is the same
+		if (useRectify) {
+			Point ul = getGridCorner(row, col);
+			return new Rect(((int) ul.x) + pad, ((int) ul.y) + pad, CELL_SIDE - 2 * pad, CELL_SIDE - 2 * pad);
+		}
+		
+		// get upper left and lower right
+		Point ul = cellCorner[row][col];
+		Point lr = cellCorner[row+1][col+1];
+		int x = ((int) ul.x) + pad;
+		int y = ((int) ul.y) + pad;
+		return new Rect(x, y, ((int) lr.x) - pad - x, ((int) lr.y) - pad - y);
+	}
+	
+	/**
+	 * Returns a cell corner in the game board image, or in the rectified board if the 
+	 * board is rectified.
+	 * 
+	 * @param row of the corner (0 to 3)
+	 * @param col of the corner (0 to 3)
+	 * @return the corner
+	 */
+	Point getCellCorner(int row, int col) {
+		return useRectify ? getGridCorner(row, col) : cellCorner[row][col];
+	}
+	
+	/**
+	 * Returns the transform from the scene to the game board image; the homography if 
+	 * the board was located, else a shift for the fixed crop. If the board is rectified,
+	 * the transform goes on to the rectified board.
+	 * 
+	 * @return the transform (3x3)
+	 */
+	Mat getSceneToBoard() {
+		Mat toGame;
+		if (useLocator && locator.isLocated()) {
+			toGame = locator.getHomography();
+		} else {
+			toGame = Mat.eye(3, 3, CvType.CV_64FC1);
+			toGame.put(0, 2, -gameROI.x);
+			toGame.put(1, 2, -gameROI.y);
+		}
+		if (!useRectify || rectifyTransform == null) return toGame;
+		Mat toRectified = new Mat();
+		Core.gemm(rectifyTransform, toGame, 1, new Mat(), 0, toRectified);
+		return toRectified;
+	}
+	
+	/**
+	 * Indicates if the geometry of the board (location and cell corners) is known from 
+	 * an earlier image, so the cells can be cut from tiles of a scene (see TileAnalyzer).
+	 * 
+	 * @return true if known
+	 */
+	public boolean isTileReady() {
+		return cornersCached && (!useLocator || locator.isLocated() || locateFailed) && (!useRectify || rectifyTransform != null);
+	}
+	
+	/**
+	 * Keeps an encoded scene in the native buffer, without decoding it, as the scene 
+	 * saveScene() saves; e.g., a scene of a burst analyzed elsewhere.
+	 * 
+	 * @param inputImage holding the encoded image
+	 * @param length of the encoded image in the array
+	 */
+	void keepScene(byte[] inputImage, int length) {
+		if (encoded.cols() < length) { // leave room for bigger images
+			encoded.create(1, length + length / 4, CvType.CV_8UC1);
+		}
+		Mat mob = encoded.colRange(0, length);
+		mob.put(0, 0, inputImage); // put stops at the end of mob
+		mob.release();
+		sceneLength = length;
+	}
+	
+	/**
+	 * Sets the result of an analysis of tiles of a scene, rather than a whole scene. 
+	 * There is no game board image, so there is no reference for differencing.
+	 * 
+	 * @param tileCells the cell images (color)
+	 * @param types the cell types, including NO_REG
+	 * @return true if all cells determined
+	 */
+	boolean setTileResults(Mat[][] tileCells, int[][] types) {
+		double[][] confidence = new double[3][3];
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				confidence[row][col] = (types[row][col] == CellTypeDetectorCircle.NO_REG) ? 0 : 1;
+			}
+		}
+		return setCellResults(tileCells, types, confidence);
+	}
+	
+	/**
+	 * Sets the result of an analysis done elsewhere, e.g., of tiles or of a burst of
+	 * scenes. There is no game board image, so there is no reference for differencing,
+	 * and no scene to save.
+	 * 
+	 * @param cells the cell images (color)
+	 * @param types the cell types, including NO_REG
+	 * @param confidence in each cell type
+	 * @return true if all cells determined
+	 */
+	boolean setCellResults(Mat[][] cells, int[][] types, double[][] confidence) {
+		boolean cellStatus = true;
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				cell[row][col] = cells[row][col];
+				cellType[row][col] = types[row][col];
+				cellConfidence[row][col] = confidence[row][col];
+				if (types[row][col] == CellTypeDetectorCircle.NO_REG) { // error!
+					System.out.println("\n\nREGISTRATION ERROR! Cell (" + row + "," + col + ") ");
+					cellStatus = false;
+				} else {
+					gameStatus.setCell(row, col, types[row][col]);
+				}
+			}
+		}
+		refGrayGame = null;
+		sceneLength = 0; // the last scene decoded is not of these cells
+		boardOK = cellStatus;
+		return cellStatus;
+	}
+	
 	/** 
 	 * Does initial processing of an image to produce the 3x3 cell image array. 
 	 * 
@@ -336,15 +776,38 @@ public class TicTacToeAnalyzer {
 	 */
 	public void initImage(byte[] inputImage) throws ImagingOpException {
 		
-		// load the image and do initial processing
-		setImage(inputImage);
+		initImage(inputImage, inputImage.length);
+	}
+
+	/** 
+	 * Does initial processing of an image to produce the 3x3 cell image array. 
+	 * 
+	 * @param inputImage holding the encoded image, possibly a reused buffer
+	 * @param length of the encoded image in the array
+	 */
+	public void initImage(byte[] inputImage, int length) throws ImagingOpException {
+		
+		// load the image and do initial processing, unless already done by checkImage()
+		if (!imagePrepared) setImage(inputImage, length);
+		imagePrepared = false;
 		
 		try {
 			// find the corners that delineate the cells
+			long start = timer.start();
 			findCorners();
+			timer.stop(AnalysisTimer.Stage.CORNERS, start);
+			
+			// warp the game board to the fixed cell grid
+			if (useRectify) {
+				start = timer.start();
+				rectifyGame();
+				timer.stop(AnalysisTimer.Stage.RECTIFY, start);
+			}
 
 			// parse the game board to produce all the cells
+			start = timer.start();
 			parseGame();
+			timer.stop(AnalysisTimer.Stage.PARSE, start);
 
 		} catch (Exception ex) {
 			System.out.println(ex.getMessage());
@@ -353,6 +816,21 @@ public class TicTacToeAnalyzer {
 						
 	}
 	
+	/**
+	 * Returns the cell images produced by initImage() (or an analysis).
+	 * 
+	 * @return a 3x3 array of cell images (color, copies)
+	 */
+	public Mat[][] getCells() {
+		Mat[][] cells = new Mat[3][3];
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				cells[row][col] = cell[row][col].clone();
+			}
+		}
+		return cells;
+	}
+	
 	/**
 	 * Does complete analysis of an image.
 	 * 
@@ -361,14 +839,74 @@ public class TicTacToeAnalyzer {
 	 */
 	public boolean analyzeImage(byte[] inputImage) throws ImagingOpException { 
 		
+		// no logical hint means complete analysis
+		return analyzeImage(inputImage, null);
+		
+	}
+	
+	/**
+	 * Does analysis of an image using the logical game board as a hint. Only the cells
+	 * that are logically empty get a full analysis. The cells that logically hold a token
+	 * get only a cheap verification. If any verification fails, falls back to a full 
+	 * analysis of all cells.
+	 * 
+	 * @param inputImage
+	 * @param logical representation of the board; if null, does complete analysis
+	 * @return true if image process successfully, false otherwise
+	 */
+	public boolean analyzeImage(byte[] inputImage, TicTacToeGameBoard logical) throws ImagingOpException { 
+		
+		return analyzeImage(inputImage, inputImage.length, logical);
+	}
+	
+	/**
+	 * Does analysis of an image using the logical game board as a hint. The image can be 
+	 * in a reused buffer, longer than the image.
+	 * 
+	 * @param inputImage holding the encoded image
+	 * @param length of the encoded image in the array
+	 * @param logical representation of the board; if null, does complete analysis
+	 * @return true if image process successfully, false otherwise
+	 */
+	public boolean analyzeImage(byte[] inputImage, int length, TicTacToeGameBoard logical) throws ImagingOpException { 
+		
 		boolean OK = false;
+		
+		// new turn for timing and debug artifacts, unless checkImage() started it
+		if (!imagePrepared) {
+			timer.newTurn();
+			DebugArtifactSink.getSink().newTurn();
+		}
+		long start = timer.start();
 
 		try {
 			// do initial processing
-			initImage(inputImage);
+			initImage(inputImage, length);
+			for (boolean[] rowTrusted : cellTrusted) {
+				Arrays.fill(rowTrusted, false);
+			}
 
-			// process cells
-			OK = findBoardState();
+			// process cells; only the changed ones, if possible
+			long startCells = timer.start();
+			if (useDifferencing && refGrayGame != null && !cornersDetected) {
+				OK = findBoardStateByChange(logical);
+			} else {
+				OK = findBoardState(logical);
+				for (boolean[] rowChanged : cellChanged) {
+					Arrays.fill(rowChanged, true);
+				}
+			}
+			timer.stop(AnalysisTimer.Stage.CELLS, startCells);
+			
+			// remember a good image as the reference for the next image
+			if (useDifferencing) {
+				updateReference(OK);
+			}
+			
+			// keep the templates up to date with the lighting
+			if (templateDetector != null && OK) {
+				learnTemplates();
+			}
 			
 			// set the public status 
 			this.boardOK = OK;
@@ -376,12 +914,57 @@ public class TicTacToeAnalyzer {
 		} catch (Exception ex) {
 			System.out.println("bad stuff going on");
 			throw new ImagingOpException("EXCEPTION!!! " + ex.getMessage());
+		} finally {
+			timer.stop(AnalysisTimer.Stage.TOTAL, start);
 		}
 				
 		return OK;
 		
 	}
 	
+	/**
+	 * Checks the quality of an image before analysis, so a bad image can be captured
+	 * again. The image is decoded and the game board cropped; if the image is then 
+	 * analyzed, that is not done again. The check starts a new turn.
+	 * 
+	 * @param inputImage holding the encoded image
+	 * @param length of the encoded image in the array
+	 * @return the verdict
+	 */
+	public ImageQualityGate.Verdict checkImage(byte[] inputImage, int length) {
+		timer.newTurn();
+		DebugArtifactSink.getSink().newTurn();
+		setImage(inputImage, length);
+		imagePrepared = true;
+		
+		long start = timer.start();
+		ImageQualityGate.Verdict verdict = qualityGate.check(game);
+		timer.stop(AnalysisTimer.Stage.QUALITY, start);
+		if (verdict != ImageQualityGate.Verdict.GOOD) {
+			System.out.println("TicTacToeAnalyzer: bad image: " + qualityGate.getStatistics());
+		}
+		return verdict;
+	}
+	
+	/**
+	 * Returns the quality gate, e.g., for its statistics.
+	 * 
+	 * @return the gate
+	 */
+	public ImageQualityGate getQualityGate() {
+		return qualityGate;
+	}
+	
+	/**
+	 * Returns the timer that records how long the stages of analysis take. The times 
+	 * for the last image analyzed are those for the current turn of the timer.
+	 * 
+	 * @return the timer
+	 */
+	public AnalysisTimer getTimer() {
+		return timer;
+	}
+	
 	/**
 	 * Returns the goodness of the analysis
 	 * 
@@ -402,8 +985,26 @@ public class TicTacToeAnalyzer {
 	 */
 	private int getCellContent(int row, int col) {
 		if (DEBUG) System.out.println("Cell (" + row + "," + col + ")");
-		// find cell type using the cell type detector
-		int type = detector.findCellType(cell[row][col]);
+		long start = timer.start();
+		// find cell type using the cascade of detectors, unless board detector already did
+		int type;
+		if (boardTypes != null) {
+			type = boardTypes[row][col];
+			cellConfidence[row][col] = 1;
+			cellTrusted[row][col] = true;
+		} else {
+			CellTypeResult result = cascade.detectCellType(cell[row][col]);
+			if (DEBUG) System.out.println("Cascade result: " + result);
+			type = result.type;
+			cellConfidence[row][col] = result.confidence;
+			cellTrusted[row][col] = result.confidence >= 1 && 
+					(templateDetector == null || cascade.getLastDetector() != templateDetector);
+		}
+		if (type == CellTypeDetectorCircle.NO_REG) {
+			cellConfidence[row][col] = 0;
+			cellTrusted[row][col] = false;
+		}
+		timer.stopCell(row, col, start);
 		if (DEBUG) {
 			System.out.println("Cell type: " + type);
 			
@@ -433,6 +1034,20 @@ public class TicTacToeAnalyzer {
 	 */
 	public boolean findBoardState() {
 		
+		// with board detection, find the circles for all cells in one pass
+		findBoardTypes();
+		
+		return findAllCells();
+	}
+	
+	/**
+	 * Finds the content of all cells in the game board, with the board detector types 
+	 * (if any) already found for the current image.
+	 * 
+	 * @return indicates if board successfully processed (all cells determined)
+	 */
+	private boolean findAllCells() {
+		
 		boolean cellStatus = true;
 		
 		// find type of all cells
@@ -441,6 +1056,138 @@ public class TicTacToeAnalyzer {
 			for (int col=0; col<3; col++) {
 				// get type of cell
 				type = getCellContent(row, col);
+				cellType[row][col] = type;
+				
+				// check status
+				if (type == CellTypeDetectorCircle.NO_REG) { // error!
+					System.out.println("\n\nREGISTRATION ERROR! Cell (" + row + "," + col + ") ");
+					cellStatus = false;
+				} else { // good stuff 
+					// fill in board status
+					gameStatus.setCell(row, col, type);
+				}
+			}
+		}
+		
+		return cellStatus;
+	}
+	
+	/**
+	 * Finds the content of all cells in the game board, using the logical game board 
+	 * as a hint. Cells logically empty are fully analyzed. Cells logically holding a 
+	 * token are only verified. Any failed verification means a full analysis.
+	 * 
+	 * @param logical representation of the board; if null, does complete analysis
+	 * @return indicates if board successfully processed (all cells determined)
+	 */
+	public boolean findBoardState(TicTacToeGameBoard logical) {
+		
+		// no hint means must look at everything
+		if (logical == null) {
+			return findBoardState();
+		}
+		
+		boolean cellStatus = true;
+		
+		// with board detection, find the circles for all cells in one pass
+		findBoardTypes();
+		
+		int type = CellTypeDetectorCircle.NO_REG;
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				int expected = logical.getCell(row, col);
+				if (expected == TicTacToeGameBoard.EMPTY) { // could have new X, so look hard
+					// get type of cell
+					type = getCellContent(row, col);
+					cellType[row][col] = type;
+					
+					// check status
+					if (type == CellTypeDetectorCircle.NO_REG) { // error!
+						System.out.println("\n\nREGISTRATION ERROR! Cell (" + row + "," + col + ") ");
+						cellStatus = false;
+					} else { // good stuff 
+						// fill in board status
+						gameStatus.setCell(row, col, type);
+					}
+				} else { // should have the logical token, so just verify
+					long start = timer.start();
+					double verified = detector.verifyConfidence(cell[row][col], expected);
+					timer.stop(AnalysisTimer.Stage.VERIFY, start);
+					if (verified >= CellTypeDetectorQuick.CONFIDENT) {
+						cellType[row][col] = expected;
+						cellConfidence[row][col] = verified;
+						gameStatus.setCell(row, col, expected);
+					} else { // disagreement, so do it the hard way
+						System.out.println("TicTacToeAnalyzer: cell (" + row + "," + col + 
+								") failed verification; doing full analysis");
+						return findAllCells(); // the board types are already found
+					}
+				}
+			}
+		}
+		
+		return cellStatus;
+	}
+	
+	/**
+	 * Finds the content of all cells in the game board by comparing the current image
+	 * with the reference image from the last good analysis. Only the cells that changed 
+	 * are analyzed; the rest keep the type from the reference. Normally just the new X 
+	 * and the robot's last O change.
+	 * 
+	 * Any cell that changed is fully analyzed, whatever the logical board says. So if a 
+	 * token was moved, both the cell it left and the cell it went to are analyzed, and
+	 * comparePhysicalLogical() sees the move. Cells that changed are reported via 
+	 * getChangedCells().
+	 * 
+	 * If too many cells changed (e.g., new game, lighting), does a full analysis.
+	 * 
+	 * @param logical representation of the board, for a fallback; may be null
+	 * @return indicates if board successfully processed (all cells determined)
+	 */
+	private boolean findBoardStateByChange(TicTacToeGameBoard logical) {
+		
+		// pad around cell, same as when parsing cells
+		int pad = 5;
+		
+		// find the difference energy of each cell
+		long start = timer.start();
+		Mat diff = new Mat();
+		int changed = 0;
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				Point ul = cellCorner[row][col];
+				Point lr = cellCorner[row+1][col+1];
+				Range colR = new Range(((int) ul.x) + pad, ((int) lr.x) - pad);
+				Range rowR = new Range(((int) ul.y) + pad, ((int) lr.y) - pad);
+				Core.absdiff(grayGame.submat(rowR, colR), refGrayGame.submat(rowR, colR), diff);
+				double energy = Core.mean(diff).val[0];
+				cellChanged[row][col] = energy > changeLevel;
+				if (cellChanged[row][col]) changed++;
+				if (DEBUG) System.out.println("Cell (" + row + "," + col + ") difference: " + energy);
+			}
+		}
+		
+		timer.stop(AnalysisTimer.Stage.DIFFERENCE, start);
+		
+		// too much change to trust the reference
+		if (changed > maxChanged) {
+			System.out.println("TicTacToeAnalyzer: " + changed + " cells changed; doing full analysis");
+			return findBoardState(logical);
+		}
+		
+		// analyze just the changed cells
+		boolean cellStatus = true;
+		boardTypes = null; // board detector is not worth it for a cell or two
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				int type = refCellType[row][col];
+				cellConfidence[row][col] = 1; // from the last good analysis
+				if (cellChanged[row][col]) {
+					type = getCellContent(row, col);
+					if (DEBUG) System.out.println("TicTacToeAnalyzer: cell (" + row + "," + col + ") changed; type " + type);
+				}
+				cellType[row][col] = type;
 				
 				// check status
 				if (type == CellTypeDetectorCircle.NO_REG) { // error!
@@ -456,6 +1203,404 @@ public class TicTacToeAnalyzer {
 		return cellStatus;
 	}
 	
+	/**
+	 * Finds the type of the uncertain cells of the last analysis again, from a new image
+	 * of the same board, e.g., when a cell had no registration circle. Only cells with 
+	 * a confidence below the level are analyzed; a new type is kept if at least as 
+	 * confident as the old one. The other cells keep their types. The board geometry 
+	 * must be as in the last image, so the cells line up.
+	 * 
+	 * @param inputImage holding the encoded image
+	 * @param length of the encoded image in the array
+	 * @param minConfidence confidence below which a cell is uncertain
+	 * @return true if all cells now determined
+	 * @throws ImagingOpException
+	 */
+	public boolean reanalyzeCells(byte[] inputImage, int length, double minConfidence) throws ImagingOpException {
+		
+		long start = timer.start();
+		try {
+			// the cells of the new image
+			imagePrepared = false;
+			initImage(inputImage, length);
+			boardTypes = null; // board detector is not worth it for a cell or two
+			for (boolean[] rowTrusted : cellTrusted) {
+				Arrays.fill(rowTrusted, false);
+			}
+			
+			// just the uncertain cells, keeping the better answer
+			boolean OK = true;
+			for (int row = 0; row < 3; row++) {
+				for (int col = 0; col < 3; col++) {
+					double oldConfidence = cellConfidence[row][col];
+					if (oldConfidence < minConfidence) {
+						int type = getCellContent(row, col);
+						System.out.println("TicTacToeAnalyzer: cell (" + row + "," + col + ") uncertain; was " +
+								cellType[row][col] + " now " + type + " confidence " + cellConfidence[row][col]);
+						if (cellConfidence[row][col] >= oldConfidence) {
+							cellType[row][col] = type;
+							if (type != CellTypeDetectorCircle.NO_REG) gameStatus.setCell(row, col, type);
+						} else {
+							cellConfidence[row][col] = oldConfidence;
+							cellTrusted[row][col] = false; // type is from the last image
+						}
+					}
+					if (cellType[row][col] == CellTypeDetectorCircle.NO_REG) OK = false;
+				}
+			}
+			
+			// as for a complete analysis
+			if (useDifferencing) {
+				updateReference(OK);
+			}
+			if (templateDetector != null && OK) {
+				learnTemplates();
+			}
+			this.boardOK = OK;
+			return OK;
+			
+		} catch (ImagingOpException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new ImagingOpException("EXCEPTION!!! " + ex.getMessage());
+		} finally {
+			timer.stop(AnalysisTimer.Stage.RECAPTURE, start);
+		}
+	}
+	
+	/**
+	 * Returns the confidence in the type of each cell found by the last analysis.
+	 * 
+	 * @return a 3x3 array of confidence, 0 (none) to 1 (certain)
+	 */
+	public double[][] getCellConfidence() {
+		double[][] confidence = new double[3][3];
+		for (int row = 0; row < 3; row++) {
+			confidence[row] = Arrays.copyOf(cellConfidence[row], 3);
+		}
+		return confidence;
+	}
+	
+	/**
+	 * Counts the cells of the last analysis with a confidence below a level.
+	 * 
+	 * @param minConfidence confidence below which a cell is uncertain
+	 * @return number of uncertain cells
+	 */
+	public int countUncertainCells(double minConfidence) {
+		int uncertain = 0;
+		for (double[] rowConfidence : cellConfidence) {
+			for (double confidence : rowConfidence) {
+				if (confidence < minConfidence) uncertain++;
+			}
+		}
+		return uncertain;
+	}
+	
+	/**
+	 * Keeps the current image and cell types as the reference for the next image, if 
+	 * the analysis was good. Otherwise there is no reference. 
+	 * 
+	 * @param analysisOK result of the analysis of the current image
+	 */
+	private void updateReference(boolean analysisOK) {
+		if (analysisOK) {
+			if (refGrayGame == null) refGrayGame = new Mat();
+			grayGame.copyTo(refGrayGame); // reuses the old reference, if any
+			refCellType = getCellTypes();
+		} else {
+			if (refGrayGame != null) refGrayGame.release();
+			refGrayGame = null;
+		}
+	}
+	
+	/**
+	 * Teaches the template detector the trusted cells of a good analysis: those found 
+	 * with full confidence by a detector other than the template detector (e.g., the 
+	 * circle detector). Cells just verified against the logical board, kept from an 
+	 * earlier image, or found by the template detector itself are left out, so a mistake
+	 * cannot teach itself.
+	 */
+	private void learnTemplates() {
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				if (cellTrusted[row][col]) templateDetector.learn(cell[row][col], cellType[row][col]);
+			}
+		}
+		if (DEBUG) System.out.println(templateDetector);
+	}
+	
+	/**
+	 * Selects the template detector between the quick and circle detectors. Its templates
+	 * are learned from the cells of each good analysis, starting over each time it is 
+	 * selected, so select it at the start of a session. The counters of the cascade 
+	 * start over.
+	 * 
+	 * @param useTemplates true to use template matching
+	 */
+	public void setTemplateMatching(boolean useTemplates) {
+		if (useTemplates) {
+			CellTypeDetectorTemplate templates = new CellTypeDetectorTemplate();
+			setDetectors(quickDetector, templates, detector);
+			templateDetector = templates;
+		} else {
+			setDetectors(quickDetector, detector);
+		}
+	}
+	
+	/**
+	 * Returns the template detector, e.g., to see what it has learned.
+	 * 
+	 * @return the detector; null if template matching is not used
+	 */
+	public CellTypeDetectorTemplate getTemplateDetector() {
+		return templateDetector;
+	}
+	
+	/**
+	 * Selects finding the board state from just the cells that changed since the last 
+	 * good analysis. Needs cached corners, so the images line up.
+	 * 
+	 * @param differencing true to analyze just changed cells
+	 */
+	public void setDifferencing(boolean differencing) {
+		this.useDifferencing = differencing;
+		if (!differencing) {
+			refGrayGame = null;
+		}
+	}
+	
+	/**
+	 * Returns the cells that changed between the reference image and the current image. 
+	 * Only meaningful when differencing selected.
+	 * 
+	 * @return 3x3 array, true for a cell that changed (a copy)
+	 */
+	public boolean[][] getChangedCells() {
+		boolean[][] changed = new boolean[3][3];
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				changed[row][col] = cellChanged[row][col];
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Selects the detector used to find cell types. The board detector finds the circles
+	 * for all cells in one pass over the game board; otherwise each cell is processed on
+	 * its own by the cell type detector.
+	 * 
+	 * @param useBoard true to use the board detector
+	 */
+	public void setBoardDetection(boolean useBoard) {
+		this.useBoardDetector = useBoard;
+	}
+	
+	/**
+	 * Selects locating the board in the scene. Otherwise the board is cropped from the
+	 * scene with a fixed ROI. Off by default; the located board is used only if the 
+	 * cell corners are found in it, else the fixed ROI is used.
+	 * 
+	 * @param locate true to locate the board
+	 */
+	public void setBoardLocation(boolean locate) {
+		this.useLocator = locate;
+		locator.invalidate();
+		locateFailed = false;
+		cornersCached = false;
+	}
+	
+	/**
+	 * Forgets what was learned from earlier images: the cached corners (and rectifying
+	 * transform), the board location, the reference for differencing, and the templates.
+	 * The next analysis then depends on its own image alone, e.g., when analyzing
+	 * unrelated scenes.
+	 */
+	public void forgetImages() {
+		cornersCached = false;
+		rectifyTransform = null;
+		locator.invalidate();
+		locateFailed = false;
+		updateReference(false);
+		if (templateDetector != null) templateDetector.reset();
+	}
+	
+	/**
+	 * Selects multi-resolution (pyramid) circle finding in the circle detector.
+	 * 
+	 * @param pyramid true to use the pyramid
+	 */
+	public void setPyramid(boolean pyramid) {
+		detector.setPyramid(pyramid);
+	}
+	
+	/**
+	 * Returns the region of the scene holding the game board, e.g., for watching the board
+	 * in preview images.
+	 * 
+	 * @return the region, at full resolution
+	 */
+	public Rect getBoardRegion() {
+		if (useLocator && locator.isLocated()) {
+			return Imgproc.boundingRect(new MatOfPoint(locator.getBoardCorners()));
+		}
+		return gameROI.clone();
+	}
+	
+	/**
+	 * Selects two tier cell type detection. The quick detector, based on simple pixel
+	 * statistics, is tried first; the circle detector is only used for the cells the
+	 * quick detector is not sure of. Otherwise every cell goes to the circle detector.
+	 * 
+	 * @param twoTier true to use two tier detection
+	 */
+	public void setTwoTier(boolean twoTier) {
+		if (twoTier) {
+			setDetectors(quickDetector, detector);
+		} else {
+			setDetectors(detector);
+		}
+	}
+	
+	/**
+	 * Selects the detectors used to find cell types. They are tried cheapest first, until
+	 * one is confident. The counters of the cascade start over.
+	 * 
+	 * @param detectors to use
+	 */
+	public void setDetectors(CellTypeDetector... detectors) {
+		cascade = new CellTypeCascade(detectors);
+		cascade.setTimer(timer);
+		templateDetector = null; // see setTemplateMatching()
+	}
+	
+	/**
+	 * Creates a new cascade with the same detectors as the one in use, configured the 
+	 * same way (e.g., the parameters and pyramid selection of the circle detector, and
+	 * the radius bands narrowed for rectification), for use by another thread (e.g., 
+	 * TileAnalyzer). A learned detector shares its model. 
+	 * 
+	 * The template detector is left out, since its templates are learned by this analyzer
+	 * as it goes. Options of the analyzer rather than the detectors (the logical board as
+	 * a hint, differencing, the board detector) do not apply to a cascade on its own. 
+	 * 
+	 * @return the cascade
+	 */
+	public CellTypeCascade newCascade() {
+		return newCascade(newCircleDetector());
+	}
+	
+	/**
+	 * Creates a new cascade like newCascade(), with a given circle detector.
+	 * 
+	 * @param circle the circle detector to use in place of the one in use
+	 * @return the cascade
+	 */
+	private CellTypeCascade newCascade(CellTypeDetectorCircle circle) {
+		List<CellTypeDetector> detectors = new ArrayList<CellTypeDetector>();
+		for (CellTypeDetector d : cascade.getDetectors()) {
+			if (d instanceof CellTypeDetectorCircle) {
+				detectors.add(circle);
+			} else if (d instanceof CellTypeDetectorQuick) {
+				detectors.add(new CellTypeDetectorQuick());
+			} else if (d instanceof CellTypeDetectorColor) {
+				detectors.add(new CellTypeDetectorColor());
+			} else if (d instanceof CellTypeDetectorLearned) {
+				detectors.add(new CellTypeDetectorLearned((CellTypeDetectorLearned) d));
+			} else if (DEBUG) {
+				System.out.println("newCascade: left out " + d.getName());
+			}
+		}
+		if (!detectors.contains(circle)) { // always have the most capable
+			detectors.add(circle);
+		}
+		return new CellTypeCascade(detectors.toArray(new CellTypeDetector[detectors.size()]));
+	}
+	
+	/**
+	 * Creates a circle detector configured like the one in use.
+	 * 
+	 * @return the detector
+	 */
+	private CellTypeDetectorCircle newCircleDetector() {
+		CellTypeDetectorCircle circle = new CellTypeDetectorCircle();
+		circle.setParameters(detector.getParameters());
+		circle.setPyramid(detector.isPyramid());
+		return circle;
+	}
+	
+	/**
+	 * Creates a new analyzer configured like this one, for use by another thread (e.g.,
+	 * BurstAnalyzer): the same detectors (see newCascade()), profile, pyramid selection,
+	 * rectification, board location and board detection. It finds the board geometry
+	 * from its own first image. As for newCascade(), the template detector is left out;
+	 * differencing is not selected, since it needs a reference image from the same
+	 * thread.
+	 * 
+	 * @return the analyzer
+	 */
+	public TicTacToeAnalyzer newAnalyzer() {
+		TicTacToeAnalyzer copy = new TicTacToeAnalyzer();
+		copy.detector.setParameters(useRectify ? fullBands : detector.getParameters());
+		copy.detector.setPyramid(detector.isPyramid());
+		copy.setRectification(useRectify); // narrows the bands of its detector, if rectifying
+		copy.boardDetector.setParameters(boardDetector.getParameters());
+		copy.setBoardLocation(useLocator);
+		copy.setBoardDetection(useBoardDetector);
+		copy.cascade = newCascade(copy.detector);
+		copy.cascade.setTimer(copy.timer);
+		return copy;
+	}
+	
+	/**
+	 * Returns the cascade of detectors used to find cell types, mostly for its counters.
+	 * 
+	 * @return the cascade
+	 */
+	public CellTypeCascade getCascade() {
+		return cascade;
+	}
+	
+	/**
+	 * Returns the fraction of cells that the first (cheapest) detector could not decide,
+	 * since the detectors were selected.
+	 * 
+	 * @return escalation rate (0 to 1)
+	 */
+	public double getEscalationRate() {
+		return cascade.getEscalationRate();
+	}
+	
+	/**
+	 * Runs the board detector, if selected, for the current image.
+	 */
+	private void findBoardTypes() {
+		if (useBoardDetector) {
+			long start = timer.start();
+			boardTypes = boardDetector.findBoardTypes(game, cellCorner);
+			timer.stop(AnalysisTimer.Stage.BOARD, start);
+		} else {
+			boardTypes = null;
+		}
+	}
+	
+	/**
+	 * Returns the cell types found by the last analysis. Unlike the board state, includes
+	 * NO_REG for cells that could not be determined.
+	 * 
+	 * @return 3x3 array of cell types (a copy)
+	 */
+	public int[][] getCellTypes() {
+		int[][] types = new int[3][3];
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				types[row][col] = cellType[row][col];
+			}
+		}
+		return types;
+	}
+	
 	/** 
 	 * Returns the analysis of the physical game board based on the image
 	 * 
@@ -466,10 +1611,43 @@ public class TicTacToeAnalyzer {
 	}
 	
 	/**
-	 * Saves the scene (camera image) in scene.png
+	 * Returns the native memory held by the images of the analyzer (not the detectors).
+	 * It should be the same from image to image.
+	 * 
+	 * @return bytes
+	 */
+	public long getNativeBytes() {
+		long bytes = nativeBytes(scene) + nativeBytes(encoded) + nativeBytes(game) + 
+				nativeBytes(grayGame) + nativeBytes(draw) + nativeBytes(refGrayGame);
+		for (Mat[] row : cornerPatch) {
+			for (Mat patch : row) {
+				bytes += nativeBytes(patch);
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the native memory held by an image.
+	 */
+	private static long nativeBytes(Mat mat) {
+		return (mat == null) ? 0 : mat.total() * mat.elemSize();
+	}
+	
+	/**
+	 * Saves the scene (camera image) in scene-<time>.jpg, in the background. The bytes 
+	 * last decoded are saved, from the native copy, so there is no encoding, and the 
+	 * buffer the image was received into can be reused. If the cells did not come from
+	 * a scene decoded here (e.g., from tiles), there is nothing to save.
 	 */
 	public void saveScene() {
-		Highgui.imwrite("scene.png", scene);			
+		if (sceneLength == 0) {
+			System.out.println("TicTacToeAnalyzer: no scene to save; cells not from a whole image");
+			return;
+		}
+		byte[] bytes = new byte[sceneLength];
+		encoded.get(0, 0, bytes);
+		DebugArtifactSink.getSink().saveBytes("scene-" + System.currentTimeMillis() + ".jpg", bytes);
 	}
 	
 }
@@ -0,0 +1,262 @@
+/**
+ * This class analyzes the game board from tiles of the scene, one tile per cell, as they
+ * arrive from the camera, rather than waiting for the whole scene to arrive and then
+ * analyzing it. Each tile is decoded, warped into its cell image, and its type found on
+ * a pool of worker threads, so the transfer of the later tiles overlaps the analysis of
+ * the earlier ones.
+ *
+ * Tiles need the geometry of the board (the transform from the scene to the game board,
+ * and the cell corners) from an earlier analysis of a whole scene; see
+ * TicTacToeAnalyzer.isTileReady(). The camera cuts the tiles on a grid of lines in the
+ * scene, with a margin so each tile holds all of its cell, whatever the perspective.
+ * The grid is sent to the camera as "x0,x1,x2,x3,y0,y1,y2,y3,margin".
+ *
+ * Each worker has its own cascade of detectors, since a detector is not thread safe,
+ * configured like the detectors of the analyzer (see TicTacToeAnalyzer.newCascade()).
+ * A worker's cascade is made when it gets its first tile, so configure the analyzer
+ * before capturing tiles. The template detector is not used for tiles; nor are the 
+ * options of the analyzer itself, e.g., the logical board as a hint, differencing and
+ * the board detector. The workers do not record into the analyzer timer.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.awt.image.ImagingOpException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+public class TileAnalyzer {
+
+//	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = false;
+
+	// pixels of margin beyond the corner farthest from a grid line
+	private static final int marginSlack = 8;
+
+	private final TicTacToeAnalyzer ta;
+	private final ExecutorService pool;
+
+	// each worker has its own detectors, configured like the analyzer's
+	private final ThreadLocal<CellTypeCascade> localCascade = new ThreadLocal<CellTypeCascade>() {
+		@Override
+		protected CellTypeCascade initialValue() {
+			return ta.newCascade();
+		}
+	};
+
+	// the grid of tiles in the scene, and the transform to the game board
+	private final int[] xs = new int[4];
+	private final int[] ys = new int[4];
+	private int margin = 0;
+	private Mat sceneToBoard = null;
+
+	// the cells of the current scene
+	private final Mat[][] cells = new Mat[3][3];
+	private final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+	private final int[][] positions = new int[9][];
+	private long startNanos = 0;
+
+	// metrics
+	private long scenes = 0;
+	private long tiles = 0;
+	private long totalNanos = 0; // from start to finish of a scene
+	private long waitNanos = 0; // waiting for workers after the last tile arrived
+
+	/**
+	 * Creates a tile analyzer.
+	 *
+	 * @param ta the analyzer that holds the board geometry, and gets the results
+	 * @param threads number of worker threads
+	 */
+	public TileAnalyzer(TicTacToeAnalyzer ta, int threads) {
+		this.ta = ta;
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Starts a scene. Finds the grid of tiles from the board geometry.
+	 *
+	 * @return true if the board geometry is known, so tiles can be used
+	 */
+	public boolean start() {
+		if (!ta.isTileReady()) return false;
+		startNanos = System.nanoTime();
+		results.clear();
+		for (Mat[] rowCells : cells) {
+			Arrays.fill(rowCells, null);
+		}
+
+		// the cell corners in the scene
+		sceneToBoard = ta.getSceneToBoard();
+		Mat boardToScene = new Mat();
+		Core.invert(sceneToBoard, boardToScene);
+		Point[] corners = new Point[16];
+		for (int row = 0; row < 4; row++) {
+			for (int col = 0; col < 4; col++) {
+				corners[4 * row + col] = ta.getCellCorner(row, col);
+			}
+		}
+		MatOfPoint2f sceneCorners = new MatOfPoint2f();
+		Core.perspectiveTransform(new MatOfPoint2f(corners), sceneCorners, boardToScene);
+		Point[] pts = sceneCorners.toArray();
+
+		// grid lines go through the mean of the corners on them
+		for (int i = 0; i < 4; i++) {
+			double x = 0;
+			double y = 0;
+			for (int j = 0; j < 4; j++) {
+				x += pts[4 * j + i].x;
+				y += pts[4 * i + j].y;
+			}
+			xs[i] = (int) Math.round(x / 4);
+			ys[i] = (int) Math.round(y / 4);
+		}
+		double deviation = 0;
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				deviation = Math.max(deviation, Math.abs(pts[4 * j + i].x - xs[i]));
+				deviation = Math.max(deviation, Math.abs(pts[4 * i + j].y - ys[i]));
+			}
+		}
+		margin = (int) Math.ceil(deviation) + marginSlack;
+		if (DEBUG) System.out.println("TileAnalyzer: grid " + getGrid());
+		return true;
+	}
+
+	/**
+	 * Returns the grid of tiles, for the camera.
+	 *
+	 * @return "x0,x1,x2,x3,y0,y1,y2,y3,margin"
+	 */
+	public String getGrid() {
+		StringBuilder grid = new StringBuilder();
+		for (int x : xs) grid.append(x).append(',');
+		for (int y : ys) grid.append(y).append(',');
+		grid.append(margin);
+		return grid.toString();
+	}
+
+	/**
+	 * Adds a tile; it is analyzed in the background. The bytes are copied, so the buffer
+	 * can be reused at once.
+	 *
+	 * @param row of the cell in the tile
+	 * @param col of the cell in the tile
+	 * @param bytes holding the encoded (JPEG) tile
+	 * @param length of the encoded tile
+	 */
+	public void addTile(final int row, final int col, byte[] bytes, int length) {
+		final Mat encoded = new Mat(1, length, CvType.CV_8UC1);
+		encoded.put(0, 0, bytes); // put stops at the end of encoded
+		tiles++;
+
+		// where the tile is in the scene, and where the cell is in the board
+		Rect rect = ta.getCellRect(row, col);
+		Mat sceneToCell = new Mat();
+		Core.gemm(translation(-rect.x, -rect.y), sceneToBoard, 1, new Mat(), 0, sceneToCell);
+		final Mat toCell = new Mat();
+		Core.gemm(sceneToCell, translation(Math.max(0, xs[col] - margin), Math.max(0, ys[row] - margin)),
+				1, new Mat(), 0, toCell);
+		final Size size = rect.size();
+
+		positions[results.size()] = new int[] {row, col};
+		results.add(pool.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				Mat tile = Highgui.imdecode(encoded, Highgui.IMREAD_COLOR);
+				encoded.release();
+				Mat cell = new Mat();
+				Imgproc.warpPerspective(tile, cell, toCell, size, Imgproc.INTER_LINEAR);
+				tile.release();
+				cells[row][col] = cell;
+				if (DEBUG) DebugArtifactSink.getSink().saveImage("tile-cell" + row + col + ".png", cell);
+				return localCascade.get().detectCellType(cell).type;
+			}
+		}));
+	}
+
+	/**
+	 * Waits for all the tiles to be analyzed, and gives the results to the analyzer. If
+	 * that fails, the analyzer gets a failed result (all NO_REG), so the result of an 
+	 * earlier scene is not taken for this one.
+	 *
+	 * @return true if all cells determined
+	 * @throws ImagingOpException if not all tiles arrived, or a tile could not be analyzed
+	 */
+	public boolean finish() throws ImagingOpException {
+		if (results.size() != 9) {
+			fail();
+			throw new ImagingOpException("EXCEPTION!!! Got " + results.size() + " of 9 tiles");
+		}
+		long startWait = System.nanoTime();
+		int[][] types = new int[3][3];
+		try {
+			for (int i = 0; i < 9; i++) {
+				types[positions[i][0]][positions[i][1]] = results.get(i).get();
+			}
+		} catch (InterruptedException | ExecutionException ex) {
+			fail();
+			throw new ImagingOpException("EXCEPTION!!! Tile analysis failed: " + ex);
+		}
+		long now = System.nanoTime();
+		waitNanos += now - startWait;
+		totalNanos += now - startNanos;
+		scenes++;
+		return ta.setTileResults(cells, types);
+	}
+
+	/**
+	 * Gives the analyzer a failed result for the current scene.
+	 */
+	private void fail() {
+		int[][] types = new int[3][3];
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				types[row][col] = CellTypeDetectorCircle.NO_REG;
+				if (cells[row][col] == null) cells[row][col] = new Mat(); // tile never arrived
+			}
+		}
+		ta.setTileResults(cells, types);
+	}
+
+	/**
+	 * Creates a transform that shifts points.
+	 */
+	private static Mat translation(double dx, double dy) {
+		Mat shift = Mat.eye(3, 3, CvType.CV_64FC1);
+		shift.put(0, 2, dx);
+		shift.put(1, 2, dy);
+		return shift;
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Tile scenes: %d tiles: %d mean millisec: %.1f mean wait after last tile: %.1f",
+				scenes, tiles, (scenes == 0) ? 0.0 : (totalNanos / 1e6 / scenes),
+				(scenes == 0) ? 0.0 : (waitNanos / 1e6 / scenes));
+	}
+
+}
@@ -0,0 +1,346 @@
+/**
+ * This is an offline regression and throughput harness for image analysis. It runs
+ * TicTacToeAnalyzer.analyzeImage() over all the scenes in a corpus (see SceneCorpus), in
+ * parallel, and reports
+ * -- per cell accuracy, and overall accuracy
+ * -- the NO_REG rate, and the count of images that could not be analyzed at all
+ * -- a confusion matrix of true cell type vs detected cell type
+ * -- images per second
+ * -- the latency of each stage of analysis (from the analyzer timers)
+ *
+ * Usage: VisionRegression corpusDir [threads] [options] [vs options]
+ *
+ * The options configure the analyzers:
+ * -- board    use the board circle detector
+ * -- onetier  do not use the quick detector first
+ * -- color    use the quick, color and circle detectors as a cascade
+ * -- pyramid  find circles at half resolution first in the circle detector
+ * -- learned  use the quick, learned and circle detectors as a cascade (needs the model
+ *             from CellClassifierTrainer)
+ * -- rectify  warp the board so every cell is the same size, and narrow the radius bands
+ * -- template use the quick, template and circle detectors as a cascade; since each 
+ *             scene is analyzed on its own (see below), the templates are never 
+ *             complete, so this measures the cost of the tier, not its benefit
+ * -- locate   locate the board in the scene, rather than crop it with a fixed ROI
+ *
+ * Each scene is analyzed as if it were the first of a session; nothing cached from
+ * other scenes (corners, board location, templates) is used, so the results do not
+ * depend on which worker thread analyzed which scenes.
+ *
+ * With "vs", two configurations are run over the same corpus and a verdict is given on
+ * the second compared to the first. For example "VisionRegression scenes 4 vs pyramid"
+ * benchmarks the pyramid circle finding against the full resolution path.
+ *
+ */
+package org.gaf.ttt.image_analysis;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gaf.ttt.common.TicTacToeGameBoard;
+
+public class VisionRegression {
+
+	// the cell types, in the order used for the confusion matrix
+	private static final int[] types = {TicTacToeGameBoard.EMPTY, TicTacToeGameBoard.NAUGHT,
+			TicTacToeGameBoard.CROSS, CellTypeDetectorCircle.NO_REG};
+	private static final String[] typeNames = {"empty", "O", "X", "NO_REG"};
+
+	// the configuration of the analyzers
+	private final String[] options;
+
+	// results
+	private final long[][] confusion = new long[3][4]; // true type (no NO_REG) x detected type
+	private final long[][] cellCorrect = new long[3][3];
+	private final long[][] cellLabelled = new long[3][3];
+	private long cells = 0; // all cells, labelled or not
+	private long noReg = 0; // cells that were NO_REG
+	private int images = 0;
+	private int failed = 0; // images that threw an exception
+	private long wallNanos = 0;
+	private final AnalysisTimer timer = new AnalysisTimer();
+
+	// the analyzers of the last run, one per worker thread
+	private final List<TicTacToeAnalyzer> analyzers = new ArrayList<TicTacToeAnalyzer>();
+
+	/**
+	 * Creates a harness for a configuration.
+	 *
+	 * @param options configuration of the analyzers; see class description
+	 */
+	public VisionRegression(String[] options) {
+		this.options = options;
+	}
+
+	/**
+	 * Configures an analyzer.
+	 *
+	 * @param analyzer to configure
+	 * @param options configuration; see class description
+	 * @throws IllegalArgumentException for an unknown option
+	 */
+	public static void configure(TicTacToeAnalyzer analyzer, String[] options) {
+		for (String option : options) {
+			if (option.equals("board")) {
+				analyzer.setBoardDetection(true);
+			} else if (option.equals("onetier")) {
+				analyzer.setTwoTier(false);
+			} else if (option.equals("pyramid")) {
+				analyzer.setPyramid(true);
+			} else if (option.equals("color")) {
+				analyzer.setDetectors(new CellTypeDetectorQuick(), new CellTypeDetectorColor(),
+						analyzer.detector); // so "pyramid" and "rectify" apply, in any order
+			} else if (option.equals("learned")) {
+				CellTypeDetectorLearned learned = CellTypeDetectorLearned.loadModel();
+				if (learned == null) {
+					throw new IllegalArgumentException("No model: " + CellTypeDetectorLearned.MODEL);
+				}
+				analyzer.setDetectors(new CellTypeDetectorQuick(), learned, analyzer.detector);
+			} else if (option.equals("rectify")) {
+				analyzer.setRectification(true);
+			} else if (option.equals("template")) {
+				analyzer.setTemplateMatching(true);
+			} else if (option.equals("locate")) {
+				analyzer.setBoardLocation(true);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+	}
+
+	/**
+	 * Runs the analysis of all scenes in the corpus.
+	 *
+	 * @param corpus the scenes
+	 * @param threads number of worker threads
+	 */
+	public void run(SceneCorpus corpus, int threads) throws InterruptedException {
+
+		// each worker thread has its own analyzer
+		analyzers.clear();
+		final ThreadLocal<TicTacToeAnalyzer> localAnalyzer = new ThreadLocal<TicTacToeAnalyzer>() {
+			@Override
+			protected TicTacToeAnalyzer initialValue() {
+				TicTacToeAnalyzer analyzer = new TicTacToeAnalyzer();
+				configure(analyzer, options);
+				synchronized (analyzers) {
+					analyzers.add(analyzer);
+				}
+				return analyzer;
+			}
+		};
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<int[][]>> results = new ArrayList<Future<int[][]>>();
+
+		// analyze all scenes
+		long start = System.nanoTime();
+		for (final SceneCorpus.Scene scene : corpus.getScenes()) {
+			results.add(pool.submit(new Callable<int[][]>() {
+				@Override
+				public int[][] call() {
+					TicTacToeAnalyzer analyzer = localAnalyzer.get();
+					analyzer.forgetImages(); // so the result does not depend on scheduling
+					analyzer.analyzeImage(scene.imageBytes);
+					return analyzer.getCellTypes();
+				}
+			}));
+		}
+
+		// gather the results
+		for (int i = 0; i < results.size(); i++) {
+			int[][] detected = null;
+			try {
+				detected = results.get(i).get();
+			} catch (ExecutionException ex) {
+				System.out.println(corpus.getScenes().get(i).name + ": " + ex.getCause().getMessage());
+			}
+			record(corpus.getScenes().get(i), detected);
+		}
+		wallNanos = System.nanoTime() - start;
+		pool.shutdown();
+
+		// gather the timing
+		for (TicTacToeAnalyzer analyzer : analyzers) {
+			timer.merge(analyzer.getTimer());
+		}
+	}
+
+	/**
+	 * Records the result for one scene.
+	 *
+	 * @param scene analyzed
+	 * @param detected cell types; null if the analysis failed completely
+	 */
+	private void record(SceneCorpus.Scene scene, int[][] detected) {
+		images++;
+		if (detected == null) {
+			failed++;
+			detected = new int[3][3];
+			for (int[] row : detected) {
+				Arrays.fill(row, CellTypeDetectorCircle.NO_REG);
+			}
+		}
+
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				cells++;
+				if (detected[row][col] == CellTypeDetectorCircle.NO_REG) noReg++;
+				if (scene.truth == null) continue;
+
+				int trueType = scene.truth.getCell(row, col);
+				confusion[indexOf(trueType)][indexOf(detected[row][col])]++;
+				cellLabelled[row][col]++;
+				if (trueType == detected[row][col]) cellCorrect[row][col]++;
+			}
+		}
+	}
+
+	/**
+	 * Finds the index of a cell type in the confusion matrix.
+	 *
+	 * @param type of cell
+	 * @return index
+	 */
+	private static int indexOf(int type) {
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == type) return i;
+		}
+		return types.length - 1;
+	}
+
+	/**
+	 * Returns the overall accuracy over labelled cells.
+	 *
+	 * @return accuracy (0 to 1)
+	 */
+	public double getAccuracy() {
+		long correct = 0;
+		long labelled = 0;
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				correct += cellCorrect[row][col];
+				labelled += cellLabelled[row][col];
+			}
+		}
+		return (labelled == 0) ? 0 : ((double) correct / labelled);
+	}
+
+	/**
+	 * Returns the throughput of the last run.
+	 *
+	 * @return images per second
+	 */
+	public double getImagesPerSecond() {
+		return (wallNanos == 0) ? 0 : (images / (wallNanos / 1e9));
+	}
+
+	/**
+	 * Returns the timing of all analyzers in the last run.
+	 *
+	 * @return the merged timer
+	 */
+	public AnalysisTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Returns a report of the last run.
+	 *
+	 * @return the report
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Configuration: " + Arrays.toString(options) + "\n");
+		sb.append(String.format("Images: %d  failed: %d  images/sec: %.2f%n", images, failed, getImagesPerSecond()));
+		sb.append(String.format("Accuracy: %.2f%%  NO_REG rate: %.2f%%%n", 100 * getAccuracy(),
+				(cells == 0) ? 0.0 : (100.0 * noReg / cells)));
+
+		sb.append("Per cell accuracy (%):\n");
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				double acc = (cellLabelled[row][col] == 0) ? 0 : (100.0 * cellCorrect[row][col] / cellLabelled[row][col]);
+				sb.append(String.format(" %6.2f", acc));
+			}
+			sb.append("\n");
+		}
+
+		sb.append("Confusion (rows true, columns detected):\n");
+		sb.append(String.format("%8s", ""));
+		for (String name : typeNames) {
+			sb.append(String.format(" %8s", name));
+		}
+		sb.append("\n");
+		for (int t = 0; t < 3; t++) {
+			sb.append(String.format("%8s", typeNames[t]));
+			for (int d = 0; d < types.length; d++) {
+				sb.append(String.format(" %8d", confusion[t][d]));
+			}
+			sb.append("\n");
+		}
+
+		for (TicTacToeAnalyzer analyzer : analyzers) {
+			sb.append(analyzer.getCascade() + "\n");
+		}
+
+		sb.append("Latency (millisec):\n");
+		sb.append(timer.toString());
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("Usage: VisionRegression corpusDir [threads] [options] [vs options]");
+			return;
+		}
+
+		// load the corpus
+		SceneCorpus corpus = new SceneCorpus(FileSystems.getDefault().getPath(args[0]));
+		System.out.println("Scenes: " + corpus.size() + " labelled: " + corpus.labelled());
+
+		// get the thread count and configurations
+		int next = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1 && args[1].matches("\\d+")) {
+			threads = Integer.parseInt(args[1]);
+			next = 2;
+		}
+		List<String> first = new ArrayList<String>();
+		List<String> second = null;
+		for (int i = next; i < args.length; i++) {
+			if (args[i].equals("vs")) {
+				second = new ArrayList<String>();
+			} else if (second == null) {
+				first.add(args[i]);
+			} else {
+				second.add(args[i]);
+			}
+		}
+
+		// run the first configuration
+		VisionRegression base = new VisionRegression(first.toArray(new String[0]));
+		base.run(corpus, threads);
+		System.out.println(base.report());
+
+		// run the second configuration, if any, and give a verdict
+		if (second != null) {
+			VisionRegression other = new VisionRegression(second.toArray(new String[0]));
+			other.run(corpus, threads);
+			System.out.println(other.report());
+
+			double accDelta = 100 * (other.getAccuracy() - base.getAccuracy());
+			double speedup = (base.getImagesPerSecond() == 0) ? 0 : (other.getImagesPerSecond() / base.getImagesPerSecond());
+			System.out.println(String.format("Verdict: accuracy %+.2f points, speed x%.2f -> %s", accDelta, speedup,
+					(accDelta < 0) ? "WORSE (accuracy)" : (speedup >= 1 ? "BETTER" : "SLOWER")));
+		}
+	}
+
+}
@@ -7,27 +7,78 @@
  * 
  * The process has a number of states. 
  * -- WORKING means that an episode has started, with no results yet
- * -- SIZE means that the image has been capture by the camera and is ready for transfer
+ * -- SIZE means that the image has been captured by the camera (and checked, if that is
+ *    selected), so the arm can move
  * -- IMAGE means the image has been transferred
  * 
  * Methods allow a caller to start an episode and wait on the state changes. For example, 
  * after the state changes to SIZE, it is possible to do other things while the thread
  * effects the transfer, e.g., move the arm.
  * 
+ * Before a full capture, a low resolution preview is checked for something over the 
+ * board (a hand, or a shadow). If so, the check is repeated a few times, so an occluded
+ * image does not get a full analysis and a human retry.
+ * 
+ * A watch episode does not capture an image. Instead it gets low resolution previews 
+ * from the camera until a MoveWatcher decides the human has finished a move (or the 
+ * watch is stopped). The caller can poll isWatching(), then start a normal episode.
+ * 
+ * After the image is received, a quick check of its quality (see ImageQualityGate) can
+ * catch a blurred or badly exposed image, so it is captured again, with changed 
+ * exposure if that is the problem, before the analysis (and the arm) would fail on it.
+ * The check is done before the SIZE state, so the arm cannot get into a new image; that
+ * means the arm waits for the transfer, decode and check, so it is not selected unless 
+ * asked for (see setQualityCheck()).
+ * 
+ * The image is received into a buffer that is reused for every episode (it grows if an
+ * image is bigger), and the analyzer decodes it from there, so a turn does not allocate
+ * megabytes of garbage. The bytes allocated for receiving and analysis are reported.
+ * 
+ * If the analysis fails because some cells are uncertain (e.g., no registration circle),
+ * another image is captured, a limited number of times, and only the uncertain cells are
+ * analyzed again (see TicTacToeAnalyzer.reanalyzeCells()); the types of the other cells
+ * are kept. The counts show how often that saves a turn that would otherwise fail. The 
+ * arm is out of the way only until the SIZE state, so when this is selected the image is
+ * analyzed, and captured again if need be, before the SIZE state; the arm waits for the
+ * analysis rather than moving during it. So it is not selected unless asked for (see 
+ * setCellRecapture()). The time the arm waits for the SIZE state is reported.
+ * 
+ * If tile capture is selected, and the board geometry is known from an earlier image, 
+ * the camera sends the board as nine tiles, one per cell, and each is analyzed as it 
+ * arrives (see TileAnalyzer). Then getData() has no image. The SIZE state comes as soon
+ * as the camera has captured the tiles, so the arm moves during the transfer and the 
+ * analysis; if the tile analysis fails, so does the turn (a whole image cannot be 
+ * captured with the arm moving).
+ * 
+ * If burst capture is selected, a few images are captured in quick succession, each is 
+ * analyzed as it arrives, and the type of each cell is decided by a vote (see 
+ * BurstAnalyzer); the burst stops early once the vote is decided. The SIZE state comes
+ * only after the last image of the burst is captured, so the arm does not get into the
+ * images.
+ * 
  * There is no synchronization of data access while in the IMAGE state. That said, the 
  * state cannot change from IMAGE to WORKING unless the caller initiates an episode.
  * 
  */
 package org.gaf.ttt.image_capture;
 
+import java.awt.image.ImagingOpException;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Scanner;
 
+import org.gaf.ttt.common.AllocationMeter;
 import org.gaf.ttt.common.SocketCommunicator;
+import org.gaf.ttt.common.TicTacToeGameBoard;
+import org.gaf.ttt.image_analysis.BurstAnalyzer;
+import org.gaf.ttt.image_analysis.ImageQualityGate;
+import org.gaf.ttt.image_analysis.MoveWatcher;
+import org.gaf.ttt.image_analysis.OcclusionDetector;
 import org.gaf.ttt.image_analysis.TicTacToeAnalyzer;
+import org.gaf.ttt.image_analysis.TileAnalyzer;
 import org.opencv.core.Core;
 
 public class ImageDigester extends Thread {
@@ -41,7 +92,7 @@ public class ImageDigester extends Thread {
     
     // the state of image acquisition
     // WORKING = capture initiated, no size no image
-    // SIZE = image captured and have size, but not transmitted
+    // SIZE = image captured (and checked), so the arm can move; maybe not transmitted
     // IMAGE = image transmitted and available
     // BOARD = image analyzed to provide game board
     private State captureState = State.WORKING;
@@ -51,7 +102,57 @@ public class ImageDigester extends Thread {
 	
 	private TicTacToeAnalyzer ta = null;
 
-	private byte[] imageBytes = null; // image captured; only valid when state = IMAGE
+	private byte[] imageBytes = new byte[0]; // image captured; only valid when state = IMAGE
+	private int imageLength = 0; // length of image; the buffer is reused, so may be longer
+	
+	// for checking image quality before analysis
+	private volatile boolean checkQuality = false;
+	private volatile boolean adjustExposure = true;
+	private static final int maxRecaptures = 2;
+	private static final int maxExposure = 25; // camera limit, in 1/6 stop
+	private int exposure = 0; // exposure compensation now set in camera
+	private long recaptures = 0;
+	
+	// for capture again when cells are uncertain
+	private volatile boolean recaptureCells = false;
+	private static final int maxCellRecaptures = 2;
+	private static final double minCellConfidence = 0.5;
+	private long cellRecaptureTurns = 0; // failed analyses that tried recapture
+	private long cellRecaptureFrames = 0; // images captured for uncertain cells
+	private long cellRecaptureSaves = 0; // failed analyses made good
+	
+	// for capture as tiles
+	private TileAnalyzer tiles = null; // null means whole images
+	
+	// for capture of a burst of images
+	private BurstAnalyzer burst = null; // null means one image
+	
+	// for measuring the garbage produced by a turn
+	private AllocationMeter meter = new AllocationMeter();
+	private long receiveAllocated = 0; // bytes
+	private long analysisAllocated = 0; // bytes
+	
+	// for measuring how long the arm waits for the image each turn
+	private long episodeStart = 0; // nanos
+	private long armWaitNanos = 0; // last turn, from the start of the episode to SIZE
+	private long armWaitTotal = 0; // nanos
+	private long armWaitTurns = 0;
+	
+	private TicTacToeGameBoard logicalHint = null; // logical board for episode; may be null
+	
+	// for watch episodes
+	private volatile boolean watchEpisode = false; // next episode is a watch
+	private volatile boolean watching = false; // watch in progress
+	private volatile boolean stopWatching = false; // caller wants watch to stop
+	private volatile boolean moveDetected = false; // last watch saw a move finish
+	
+	// for checking the board is clear before a full capture
+	private OcclusionDetector occlusion = new OcclusionDetector();
+	private volatile boolean checkOcclusion = true;
+	private static final int maxOcclusionRetries = 5;
+	private static final long occlusionRetryMillis = 300;
+	private long occludedPreviews = 0; // previews rejected
+	private long occludedCaptures = 0; // captures done while still occluded
 
     /**
      * Constructor that creates the communication capability
@@ -100,20 +201,63 @@ public class ImageDigester extends Thread {
                     }
                 }
             }
+            // a watch episode just watches previews
+            if (watchEpisode) {
+            	watchForMove();
+            	watchEpisode = false;
+            	pause();
+            	watching = false; // only now can the caller start another episode
+            	continue;
+            }
+            
             // capture activities for an episode start here
 			// request an image
             signalStateChange(State.WORKING);
+            episodeStart = System.nanoTime();
             if (DEBUG) System.out.println("ImageDigester: State: " + captureState);
             
+            boolean imageOK = false;
+            boolean analyzed = false; // before the arm moves
 			try {
+				// make sure nothing is over the board
+				if (checkOcclusion) awaitClearBoard();
+				
+				// capture as tiles if possible
+				if (tiles != null && tiles.start()) {
+					captureTiles();
+		            pause();
+		            continue;
+				}
+				
+				// capture a burst, and vote
+				if (burst != null) {
+					captureBurst();
+		            pause();
+		            continue;
+				}
+				
 				// send a command to get a picture and return the data length
 				int dataLen = commo.sendCommandGetStatus("send_pic");
 				
-				// signal got length
-	            signalStateChange(State.SIZE);
+				// signal got length, so the arm can move, unless another image might be needed
+				boolean armWaits = checkQuality || recaptureCells;
+				if (!armWaits) signalStateChange(State.SIZE);
 				
-	            // now retrieve the data
-	            imageBytes = commo.getData(dataLen);
+	            // now retrieve the data, into the reused buffer
+	            receiveImage(dataLen);
+	            
+	            // get another image if this one is no good; the arm must not move yet
+	            if (checkQuality) recaptureBadImage();
+	            
+	            // uncertain cells can only be captured again before the arm moves
+	            if (recaptureCells) {
+	            	imageOK = analyzeImage();
+	            	if (!imageOK) imageOK = recaptureUncertainCells();
+	            	analyzed = true;
+	            }
+				
+				// signal got image, so the arm can move
+	            if (armWaits) signalStateChange(State.SIZE);
 				
 			} catch (IOException e) {
 				System.out.println("Communication error with camera!");
@@ -126,9 +270,10 @@ public class ImageDigester extends Thread {
 
             if (DEBUG) System.out.println("ImageDigester: State: " + captureState);
             
-            // now analyze image
-			boolean imageOK = ta.analyzeImage(imageBytes);
+            // now analyze image, unless already done
+            if (!analyzed) imageOK = analyzeImage();
             System.out.println("Result of analysis: " + imageOK);
+            if (DEBUG) printStatistics();
             
 			// signal that finished analysis
             signalStateChange(State.BOARD);
@@ -140,10 +285,15 @@ public class ImageDigester extends Thread {
             pause();
         }
         
+        // the statistics of the session
+        printStatistics();
+        
         // 
         try {
         	// close communications
 			commo.close();
+			if (tiles != null) tiles.shutdown();
+			if (burst != null) burst.shutdown();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -151,11 +301,340 @@ public class ImageDigester extends Thread {
         if (DEBUG) System.out.println("All done");
     }
 
+    /**
+     * Prints the statistics of capture and analysis: for the last turn, and counts for the
+     * session so far.
+     */
+    private void printStatistics() {
+        System.out.println(String.format("Arm wait millisec, last: %.1f mean: %.1f", armWaitNanos / 1e6,
+        		(armWaitTurns == 0) ? 0.0 : (armWaitTotal / 1e6 / armWaitTurns)));
+        System.out.println("Allocated KB, receive: " + receiveAllocated / 1024 + 
+        		" analysis: " + analysisAllocated / 1024 + " native KB held: " + ta.getNativeBytes() / 1024);
+        System.out.println(ta.getCascade() + " escalation rate: " + ta.getEscalationRate());
+        System.out.println(ta.getTimer().turnSummary());
+        if (checkQuality) {
+        	System.out.println(ta.getQualityGate() + " recaptures: " + recaptures + " exposure: " + exposure);
+        }
+        if (recaptureCells) {
+        	System.out.println("Cell recaptures, failed turns: " + cellRecaptureTurns + " images: " + 
+        			cellRecaptureFrames + " saved turns: " + cellRecaptureSaves);
+        }
+        if (checkOcclusion) {
+        	System.out.println(occlusion + " rejected previews: " + occludedPreviews + 
+        			" occluded captures: " + occludedCaptures);
+        }
+        if (tiles != null) System.out.println(tiles);
+        if (burst != null) System.out.println(burst);
+    }
+    
+    /**
+     * Gets previews until the watcher decides a move is done, or the watch is stopped.
+     */
+    private void watchForMove() {
+    	MoveWatcher watcher = new MoveWatcher(ta.getBoardRegion());
+    	try {
+    		while (!stopWatching && running) {
+    			if (watcher.addFrame(getPreview())) {
+    				moveDetected = true;
+    				break;
+    			}
+    		}
+    		if (DEBUG) System.out.println("ImageDigester: watch over; previews: " + watcher.getFrames() +
+    				" move: " + moveDetected);
+		} catch (IOException e) {
+			System.out.println("Communication error with camera!");
+			e.printStackTrace();
+			terminate();
+		}
+    }
+    
+    /**
+     * Analyzes the image received, measuring the garbage produced.
+     * 
+     * @return true if analysis good
+     */
+    private boolean analyzeImage() {
+        meter.start();
+		boolean imageOK = ta.analyzeImage(imageBytes, imageLength, logicalHint);
+		analysisAllocated = meter.stop();
+		return imageOK;
+    }
+    
+    /**
+     * Receives an image into the reused buffer.
+     * 
+     * @param dataLen length of the image
+     * @throws IOException
+     */
+    private void receiveImage(int dataLen) throws IOException {
+        meter.start();
+        if (imageBytes.length < dataLen) { // leave room for bigger images
+        	imageBytes = new byte[dataLen + dataLen / 4];
+        }
+        commo.readData(imageBytes, dataLen);
+        imageLength = dataLen;
+        receiveAllocated = meter.stop();
+    }
+    
+    /**
+     * Checks the quality of the image received, and captures again if it is bad, a 
+     * limited number of times. If the exposure is the problem, it is changed first (if 
+     * selected). The last image is analyzed, whatever its quality; it is checked too, so
+     * the image the analyzer has prepared is always the one received last.
+     * 
+     * @throws IOException
+     */
+    private void recaptureBadImage() throws IOException {
+    	for (int attempt = 0; ; attempt++) {
+    		ImageQualityGate.Verdict verdict = ta.checkImage(imageBytes, imageLength);
+    		if (verdict == ImageQualityGate.Verdict.GOOD || attempt == maxRecaptures) return;
+    		recaptures++;
+    		
+    		int step = ta.getQualityGate().getExposureStep();
+    		if (adjustExposure && step != 0) {
+    			exposure = Math.max(-maxExposure, Math.min(maxExposure, exposure + step));
+    			commo.sendCommandGetStatus("set_ev:" + exposure);
+    		}
+    		System.out.println("ImageDigester: " + verdict + " image; capturing again; exposure: " + exposure);
+    		receiveImage(commo.sendCommandGetStatus("send_pic"));
+    	}
+    }
+    
+    /**
+     * Captures images again, a limited number of times, to find the type of the cells 
+     * that were uncertain in a failed analysis.
+     * 
+     * @return true if the analysis is now good
+     */
+    private boolean recaptureUncertainCells() {
+    	cellRecaptureTurns++;
+    	try {
+    		for (int attempt = 0; attempt < maxCellRecaptures; attempt++) {
+    			int uncertain = ta.countUncertainCells(minCellConfidence);
+    			if (uncertain == 0) break; // failed for some other reason
+    			System.out.println("ImageDigester: " + uncertain + " uncertain cells; capturing again");
+    			receiveImage(commo.sendCommandGetStatus("send_pic"));
+    			cellRecaptureFrames++;
+    			if (ta.reanalyzeCells(imageBytes, imageLength, minCellConfidence)) {
+    				cellRecaptureSaves++;
+    				return true;
+    			}
+    		}
+    	} catch (IOException e) {
+			System.out.println("Communication error with camera!");
+			e.printStackTrace();
+			terminate();
+    	} catch (ImagingOpException ex) {
+    		System.out.println("ImageDigester: recapture failed; " + ex.getMessage());
+    	}
+    	return false;
+    }
+    
+    /**
+     * Selects capturing again for the uncertain cells of a failed analysis. Then the
+     * analysis is done before the arm can move (the SIZE state), on every turn, so the arm
+     * waits for it; not selected by default.
+     * 
+     * @param recapture true to capture again
+     */
+    public void setCellRecapture(boolean recapture) {
+    	recaptureCells = recapture;
+    }
+    
+    /**
+     * Selects checking the quality of an image before analysis, and capturing it again
+     * if bad. The check (and any capture again) is done before the arm can move (the 
+     * SIZE state), on every turn, so the arm waits for it; not selected by default.
+     * 
+     * @param check true to check
+     * @param adjust true to change the exposure of the camera for a badly exposed image
+     */
+    public void setQualityCheck(boolean check, boolean adjust) {
+    	checkQuality = check;
+    	adjustExposure = adjust;
+    }
+    
+    /**
+     * Captures the board as tiles and analyzes them as they arrive.
+     * 
+     * @throws IOException
+     */
+    private void captureTiles() throws IOException {
+    	String command = "send_tiles:" + tiles.getGrid();
+    	int count = commo.sendCommandGetStatus(command);
+    	
+    	// signal captured, so the arm can move
+    	signalStateChange(State.SIZE);
+    	
+    	// get each tile, and hand it off for analysis
+    	for (int i = 0; i < count; i++) {
+    		int dataLen = commo.getStatus(command);
+            if (imageBytes.length < dataLen) { 
+            	imageBytes = new byte[dataLen + dataLen / 4];
+            }
+            commo.readData(imageBytes, dataLen);
+            tiles.addTile(i / 3, i % 3, imageBytes, dataLen);
+    	}
+    	imageLength = 0; // no whole image
+    	signalStateChange(State.IMAGE);
+    	
+    	boolean imageOK = false;
+    	try {
+    		imageOK = tiles.finish();
+    	} catch (ImagingOpException ex) {
+    		System.out.println(ex.getMessage());
+    	}
+        System.out.println("Result of tile analysis: " + imageOK);
+        if (DEBUG) System.out.println(tiles);
+        signalStateChange(State.BOARD);
+    }
+    
+    /**
+     * Selects capture of the board as tiles, analyzed as they arrive, once the board 
+     * geometry is known.
+     * 
+     * @param useTiles true to capture tiles
+     * @param threads number of threads analyzing tiles
+     */
+    public void setTileCapture(boolean useTiles, int threads) {
+    	if (tiles != null) tiles.shutdown();
+    	tiles = useTiles ? new TileAnalyzer(ta, threads) : null;
+    }
+    
+    /**
+     * Captures a burst of images, analyzing each as it arrives, until the vote on the 
+     * cell types is decided or the burst is done.
+     * 
+     * @throws IOException
+     */
+    private void captureBurst() throws IOException {
+    	burst.start(logicalHint);
+    	for (int i = 0; i < burst.getFrames(); i++) {
+    		receiveImage(commo.sendCommandGetStatus("send_pic"));
+    		burst.addFrame(imageBytes, imageLength);
+    		if (burst.isDecided()) break;
+    	}
+    	signalStateChange(State.SIZE);
+    	signalStateChange(State.IMAGE);
+    	
+    	boolean imageOK = false;
+    	try {
+    		imageOK = burst.finish();
+    	} catch (ImagingOpException ex) {
+    		System.out.println(ex.getMessage());
+    	}
+        System.out.println("Result of burst analysis: " + imageOK);
+        if (DEBUG) System.out.println(burst);
+        signalStateChange(State.BOARD);
+    }
+    
+    /**
+     * Selects capture of a burst of images for each episode, with the cell types decided
+     * by a vote.
+     * 
+     * @param useBurst true to capture a burst
+     * @param frames number of images in a burst (3 to 5 is sensible)
+     * @param threads number of threads analyzing images
+     */
+    public void setBurstCapture(boolean useBurst, int frames, int threads) {
+    	if (burst != null) burst.shutdown();
+    	burst = useBurst ? new BurstAnalyzer(ta, frames, threads) : null;
+    }
+    
+    /**
+     * Gets a low resolution preview from the camera.
+     * 
+     * @return the encoded (JPEG) preview
+     * @throws IOException
+     */
+    private byte[] getPreview() throws IOException {
+		int dataLen = commo.sendCommandGetStatus("send_preview");
+		return commo.getData(dataLen);
+    }
+    
+    /**
+     * Waits, a limited time, for nothing to be over the board. Checks previews until 
+     * one is clear. If none is, a full capture is done anyway.
+     * 
+     * @throws IOException
+     */
+    private void awaitClearBoard() throws IOException {
+    	for (int attempt = 0; attempt <= maxOcclusionRetries; attempt++) {
+    		if (!occlusion.isOccluded(getPreview(), ta.getBoardRegion())) return;
+    		occludedPreviews++;
+    		if (DEBUG) System.out.println("ImageDigester: board occluded; retry " + attempt);
+    		try {
+				Thread.sleep(occlusionRetryMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+    	}
+    	occludedCaptures++;
+    	System.out.println("ImageDigester: board still occluded; capturing anyway");
+    }
+    
+    /**
+     * Selects checking for something over the board before a full capture.
+     * 
+     * @param check true to check
+     */
+    public void setOcclusionCheck(boolean check) {
+    	checkOcclusion = check;
+    }
+    
+    /**
+     * Starts a watch episode, to find out when the human has finished a move.
+     */
+    public void startWatch() {
+    	moveDetected = false;
+    	stopWatching = false;
+    	watching = true;
+    	watchEpisode = true;
+    	startEpisode();
+    }
+    
+    /**
+     * Stops a watch episode, e.g., because the human pressed a button. Use isWatching()
+     * to find out when it has stopped.
+     */
+    public void stopWatch() {
+    	stopWatching = true;
+    }
+    
+    /**
+     * Indicates if a watch episode is in progress. 
+     * 
+     * @return true if watching
+     */
+    public boolean isWatching() {
+    	return watching;
+    }
+    
+    /**
+     * Indicates if the last watch episode ended because a move was finished.
+     * 
+     * @return true if a move was detected
+     */
+    public boolean isMoveDetected() {
+    	return moveDetected;
+    }
+
+    /**
+     * Indicates if the thread is still running, i.e., not terminated (e.g., by a camera
+     * communication error).
+     * 
+     * @return true if running
+     */
+    public boolean isRunning() {
+    	return running;
+    }
+
     /**
      * Terminates the thread
      */
     public void terminate() {
         running = false;
+        stopWatching = true;
         // start an episode so that can bail
         startEpisode();
     }
@@ -171,12 +650,24 @@ public class ImageDigester extends Thread {
      * Starts an episode.
      */
     public void startEpisode() {
+    	signalStateChange(State.WORKING); // so the last episode's state is not taken for this one's
         synchronized (pauseLock) {
             paused = false;
             pauseLock.notifyAll(); // Unblocks thread
         }
     }
     
+    /**
+     * Starts an episode, with the logical game board as a hint for analysis. Only 
+     * the cells that are logically empty get a full analysis.
+     * 
+     * @param logical representation of the board; if null, does complete analysis
+     */
+    public void startEpisode(TicTacToeGameBoard logical) {
+    	logicalHint = logical;
+    	startEpisode();
+    }
+    
     /**
      * Waits for a change in capture state. 
      * 
@@ -197,26 +688,33 @@ public class ImageDigester extends Thread {
     }
     
     /**
-     * Waits for a change in capture state to the desired state.
+     * Waits for a change in capture state to the desired state, or a later one. States 
+     * can follow each other quickly (e.g., for tiles), so a state can be over before the 
+     * caller gets to see it.
      */
     public void awaitDesiredState(State desiredState) {   	   	
 		if (DEBUG) System.out.println("ImageDigester: about to wait state change to " + desiredState);
-		if (desiredState == captureState) { // already in state so just return
-			// do nothing
-		} else { // must assume state change has not yet occurred
-			while (true) {
+		synchronized (dataLock) {
+			while (captureState.ordinal() < desiredState.ordinal()) {
 		    	// wait on the state to change
-				State myState = awaitStateChange();
-				if (myState == desiredState) {
-					if (DEBUG) System.out.println("ImageDigester: got state change to " + myState);
-					break;
-				} 					
+				try {
+					dataLock.wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					return;
+				}
 			}
 		}
+		if (DEBUG) System.out.println("ImageDigester: got state change to " + captureState);
     }
 
     
     private void signalStateChange(State newState) {
+    	if (newState == State.SIZE) { // the arm can move now
+    		armWaitNanos = System.nanoTime() - episodeStart;
+    		armWaitTotal += armWaitNanos;
+    		armWaitTurns++;
+    	}
         synchronized (dataLock) {
         	captureState = newState;
         	dataLock.notifyAll(); // Unblocks thread
@@ -224,8 +722,13 @@ public class ImageDigester extends Thread {
     	
     }
     
+    /**
+     * Returns the image captured. The buffer is reused, so this is a copy.
+     * 
+     * @return the encoded image
+     */
     public byte[] getData() {
-    	return imageBytes;
+    	return Arrays.copyOf(imageBytes, imageLength);
     }
 
 	
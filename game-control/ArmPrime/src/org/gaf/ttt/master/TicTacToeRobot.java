@@ -31,6 +31,8 @@ public class TicTacToeRobot {
 	static final String ARM_MOVING = "show&blink;r;STAY BACK!\nArm CAN HURT YOU";
 	static final String SET_UP = "show&wait;y;Set up for play\nL=Done";
 	static final String HUMAN_MOVE = "show&wait;g;Your move.\nL=Done    Quit=R";
+	static final String HUMAN_MOVE_WATCH = "show;g;Your move.\nL=Done    Quit=R";
+	static final String POLL_BUTTONS = "poll";
 	static final String DRAW = "show&wait;w;Tie!\nL=Again   Quit=R";
 	static final String ROBOT_WIN = "show&wait;w;Robot Wins! Push\nL=Again   Quit=R";
 	static final String NEW_GAME = "show&wait;w;New Game?\nL=Again   Quit=R";
@@ -48,6 +50,10 @@ public class TicTacToeRobot {
 	// status for the UI
 	static final  int LEFT_BUTTON = 1;
 	static final  int RIGHT_BUTTON = 2;
+	
+	// when watching for human moves, time between polls of the UI buttons
+	static final long POLL_MILLIS = 200;
+	static boolean watchMoves = false;
 
 //	static SocketCommunicator camera = null;
 	static SocketCommunicator ui = null;
@@ -98,6 +104,36 @@ public class TicTacToeRobot {
 			String doit = input.next();
 			if (doit.equals("y")) goHome = false;
 			
+			// determine if watch for the end of human moves, so button is optional
+	        System.out.println("WATCH camera for end of human move? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) watchMoves = true;
+			
+			// determine if locate the board in the scene, rather than crop a fixed region
+	        System.out.println("LOCATE board in scene? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) analyzer.setBoardLocation(true);
+			
+			// determine if capture as tiles, analyzed as they arrive
+	        System.out.println("CAPTURE board as tiles? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) ic.setTileCapture(true, Runtime.getRuntime().availableProcessors());
+			
+			// determine if capture a burst of images, with the cells decided by a vote
+	        System.out.println("CAPTURE a burst of images? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) ic.setBurstCapture(true, 3, Runtime.getRuntime().availableProcessors());
+			
+			// determine if check image quality and capture again if bad; the arm waits for it
+	        System.out.println("CHECK image quality (arm waits for check)? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) ic.setQualityCheck(true, true);
+			
+			// determine if capture again for uncertain cells; the arm waits for the analysis
+	        System.out.println("RECAPTURE uncertain cells (arm waits for analysis)? (y/n)");
+			doit = input.next();
+			if (doit.equals("y")) ic.setCellRecapture(true);
+			
 			// send warning about arm movement
 			doBeeperBlip();
 			
@@ -142,7 +178,11 @@ public class TicTacToeRobot {
 				boolean needAlarm = false; // indicates that need alarm when drop token
 				while (makeMoves) {
 					// prompt the player to make a move
-					status = ui.sendCommandGetStatus(HUMAN_MOVE);
+					if (watchMoves) {
+						status = awaitHumanMove();
+					} else {
+						status = ui.sendCommandGetStatus(HUMAN_MOVE);
+					}
 					// determine action
 					if (status == RIGHT_BUTTON) { // want to quit
 						// set prompt for new game
@@ -154,8 +194,8 @@ public class TicTacToeRobot {
 						// prompt the player to wait for robot
 						status = ui.sendCommandGetStatus(THINKING);
 
-						// request an image and processing
-						ic.startEpisode();
+						// request an image and processing; logical board limits the work
+						ic.startEpisode(player.getBoardState());
 
 						// wait for image to be captured 
 						ic.awaitDesiredState(ImageDigester.State.SIZE);;
@@ -451,6 +491,47 @@ public class TicTacToeRobot {
 		arm.goNeutral();
 	}
 	
+	/**
+	 * Waits for the human to finish a move, by watching camera previews. The human can
+	 * still push L to say the move is done, or R to quit.
+	 * 
+	 * If the watch ends without a move or a button (e.g., the camera failed), the human 
+	 * is asked to push a button, as without watching; if the image thread is gone (it
+	 * stops on a camera communication error), there is no going on.
+	 * 
+	 * @return button status like the HUMAN_MOVE prompt; LEFT_BUTTON if the move was seen
+	 * @throws IOException if the image thread is gone
+	 */
+	private static int awaitHumanMove() throws IOException {
+		
+		// prompt without waiting, and start watching
+		ui.sendCommandGetStatus(HUMAN_MOVE_WATCH);
+		ic.startWatch();
+		
+		// poll the buttons until the watch ends
+		int status = 0;
+		while (ic.isWatching()) {
+			if (status == 0) { // no button yet
+				status = ui.sendCommandGetStatus(POLL_BUTTONS);
+				if (status != 0) ic.stopWatch();
+			}
+			try {
+				Thread.sleep(POLL_MILLIS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		if (DEBUG) System.out.println("Move detected: " + ic.isMoveDetected() + " status: " + status);
+		
+		if (status != 0) return status;
+		if (!ic.isRunning()) {
+			throw new IOException("Image thread stopped while watching for human move");
+		}
+		if (ic.isMoveDetected()) return LEFT_BUTTON;
+		System.out.println("Watch ended without a move; waiting for button");
+		return ui.sendCommandGetStatus(HUMAN_MOVE);
+	}
+	
 	private static void waitForEnter(String prompt) {
 		
 		boolean OK = false;
@@ -7,6 +7,7 @@
 # Commnads:
 #	- display message; return key status 
 #	- display message; no wait
+#	- poll buttons; return key status (presses since last display), no wait
 #
 # Status:
 #	- state of switches (toggled or not)
@@ -19,6 +20,8 @@
 #		color = 'r' (red), 'g' (green), 'b' (blue), 'y' (yellow), 'w' (white)
 #		message = up to 32 char, 16 per line, with '\n' between lines
 #
+# or "poll"
+#
 
 from socket import *
 import time
@@ -147,7 +150,20 @@ while True:
 		subCmd = ' '
 		if (len(subFacets) >= 2) :
 			subCmd = subFacets[1]
-		if (mainCmd == "show"):
+		if (mainCmd == "poll"):
+			# report any button press since last display, without waiting
+			status = 0
+			if (GPIO.event_detected(button_L)) :
+				if (DEBUG): print("Button L pressed")
+				status = status + 1
+			elif (GPIO.event_detected(button_R)) :
+				if (DEBUG): print("Button R pressed")
+				status = status + 2
+			
+			# send the return status 
+			server.sendStatus(status)
+
+		elif (mainCmd == "show"):
 
 			# suspend blinking
 			if not blinky.suspended :